@@ -0,0 +1,49 @@
+package demoproject;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark { // Single cube and camera maths, none of this needs a GL context
+    private final Cube cube = new Cube(new Vector3f(1.0f, 2.0f, 3.0f), true);
+    private final Camera camera = new Camera();
+    private final Matrix4f dest = new Matrix4f();
+    private float time = 0.0f;
+    private float mouse = 0.0f;
+
+    @Benchmark
+    public Matrix4f cubeModelMatrix() { // Allocating version, what the render loop used to call
+        time += 0.016f;
+        return cube.getModelMatrix(time, 7);
+    }
+
+    @Benchmark
+    public Matrix4f cubeModelMatrixDest() { // Allocation free version
+        time += 0.016f;
+        return cube.getModelMatrix(time, 7, dest);
+    }
+
+    @Benchmark
+    public Matrix4f cameraViewMatrix() {
+        return camera.getViewMatrix();
+    }
+
+    @Benchmark
+    public Matrix4f cameraViewMatrixDest() {
+        return camera.getViewMatrix(dest);
+    }
+
+    @Benchmark
+    public void cameraMouseInput() { // Dragging back and forth, so the elevation clamp gets hit too
+        mouse = (mouse + 3.0f) % 600.0f;
+        camera.processMouseInput(mouse, 600.0f - mouse, true);
+    }
+}
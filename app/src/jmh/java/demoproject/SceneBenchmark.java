@@ -0,0 +1,80 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SceneBenchmark { // Whole scene updates at different sizes, same code the render loop runs minus the GL calls
+    @Param({"1000", "100000", "1000000"})
+    public int cubeCount;
+
+    private SpatialGrid grid;
+    private CubeStore cubes;
+    private TransformStage serial;
+    private TransformStage parallel;
+    private FloatBuffer matrices;
+    private final Matrix4f viewProj = new Matrix4f();
+    private final Random random = new Random(42); // Fixed seed so runs are comparable
+    private float time = 0.0f;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        grid = new SpatialGrid();
+        cubes = new CubeStore(cubeCount, grid);
+        for (int i = 0; i < cubeCount; i++) { // Spread out like a big version of the scene App generates
+            float extent = (float) Math.cbrt(cubeCount) * 2.0f;
+            cubes.add(extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f),
+                random.nextBoolean());
+        }
+        serial = new TransformStage(1);
+        parallel = new TransformStage();
+        matrices = BufferUtils.createFloatBuffer(cubeCount * TransformStage.FLOATS_PER_MATRIX);
+        viewProj.perspective((float) Math.toRadians(45.0f), 16.0f / 9.0f, Window.Z_NEAR, Window.Z_FAR)
+            .lookAt(0.0f, 5.0f, 20.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        serial.cleanup();
+        parallel.cleanup();
+    }
+
+    @Benchmark
+    public FloatBuffer transformSerial() {
+        time += 0.016f;
+        serial.compute(cubes, time, matrices);
+        return matrices;
+    }
+
+    @Benchmark
+    public FloatBuffer transformParallel() {
+        time += 0.016f;
+        parallel.compute(cubes, time, matrices);
+        return matrices;
+    }
+
+    @Benchmark
+    public int frustumCull() {
+        return grid.cull(viewProj, cubes);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public int churn() { // Delete and re-add 1000 random cubes, the scene size stays the same
+        for (int i = 0; i < 1000; i++) {
+            cubes.swapRemove(random.nextInt(cubes.size()));
+            cubes.add(random.nextFloat(-10.0f, 10.0f), random.nextFloat(-10.0f, 10.0f), random.nextFloat(-10.0f, 10.0f), random.nextBoolean());
+        }
+        return cubes.size();
+    }
+}
@@ -0,0 +1,80 @@
+package demoproject;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class SpatialQueryBenchmark { // CubeBvh query latency and update cost, against a plain scan over every cube
+    @Param({"1000000"})
+    public int cubeCount;
+
+    private CubeStore cubes;
+    private CubeBvh bvh;
+    private final Random random = new Random(42); // Fixed seed so runs are comparable
+    private float extent;
+    private float time = 0.0f;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        cubes = new CubeStore(cubeCount, null);
+        extent = (float) Math.cbrt(cubeCount) * 2.0f; // Same spread as SceneBenchmark
+        for (int i = 0; i < cubeCount; i++) {
+            cubes.add(extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f),
+                random.nextBoolean());
+        }
+        bvh = new CubeBvh(cubes);
+        bvh.update(time);
+    }
+
+    @Benchmark
+    public void update() { // What a tick with queries pays before answering them when the scene hasn't changed, no refit
+        time += 0.016f;
+        bvh.update(time);
+    }
+
+    @Benchmark
+    public CubeBvh rebuild() { // What the first query pays, and one after enough cubes were added or removed
+        CubeBvh fresh = new CubeBvh(cubes);
+        fresh.update(time);
+        return fresh;
+    }
+
+    @Benchmark
+    public CubeBvh.Hit raycast() { // From outside the scene towards a random point in it, like a click
+        float x = extent * random.nextFloat(-0.5f, 0.5f), y = extent * random.nextFloat(-0.5f, 0.5f);
+        return bvh.raycast(x, y, extent, 0.0f, 0.0f, -1.0f, Window.Z_FAR);
+    }
+
+    @Benchmark
+    public int sphere(Blackhole blackhole) { // About 30 cubes on average at this density
+        return bvh.sphere(extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f),
+            4.0f, blackhole::consume);
+    }
+
+    @Benchmark
+    public int box(Blackhole blackhole) {
+        float x = extent * random.nextFloat(-0.5f, 0.5f), y = extent * random.nextFloat(-0.5f, 0.5f), z = extent * random.nextFloat(-0.5f, 0.5f);
+        return bvh.box(x - 3.0f, y - 3.0f, z - 3.0f, x + 3.0f, y + 3.0f, z + 3.0f, blackhole::consume);
+    }
+
+    @Benchmark
+    public int sphereScan() { // The same radius query as a linear scan, for comparison
+        float x = extent * random.nextFloat(-0.5f, 0.5f), y = extent * random.nextFloat(-0.5f, 0.5f), z = extent * random.nextFloat(-0.5f, 0.5f);
+        int found = 0;
+        for (int i = 0; i < cubes.size(); i++) {
+            float dx = cubes.x(i) - x, dy = cubes.y(i) - y, dz = cubes.z(i) - z;
+            if (dx * dx + dy * dy + dz * dz <= 16.0f) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -1,26 +1,58 @@
 package demoproject;
 
-import java.util.ArrayList;
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import static org.lwjgl.glfw.GLFW.glfwGetTime;
-import static org.lwjgl.opengl.GL30.*;
+import org.lwjgl.BufferUtils;
+import demoproject.FrameMetrics.Stage;
+import static org.lwjgl.opengl.GL33.*;
 
 public class App {
+    private static long launchNanos = System.nanoTime(); // Set when the class loads, right before main, for the time to first frame
     private Window window; // Custom classes
     private Camera camera;
+    private TransformStage transformStage; // Computes the instanced model matrices on worker threads
+    private FrameMetrics metrics; // Per stage timings, does nothing unless --metrics is passed
+    private Simulation simulation; // Owns the cubes, runs on its own thread at a fixed rate
+    private ShaderLibrary shaderLibrary; // Loads the shaders below from files or the jar, caches their binaries and hot reloads them
     private Shader shader;
+    private Shader instancedShader; // Same as the shader above, but the model matrix comes from a vertex attribute
+    private int modelUniform, viewUniform, projectionUniform; // Uniform handles, resolved once after the shaders are linked
+    private int instancedViewUniform, instancedProjectionUniform;
+    private Shader gpuAnimatedShader; // Does the rotation itself from a time uniform, for the GPU animated render mode
+    private int gpuViewUniform, gpuProjectionUniform, gpuTimeUniform;
+    private GpuCuller gpuCuller; // Compute shader culling for the GPU culled render mode, null if the context doesn't have GL 4.3
 
     private int vao; // OpenGL objects
     private int vbo; // They're actually references stored as ints
     private int ebo; // Remember: under the hood they ARE arrays
+    private StreamBuffer instanceStream; // Per-instance model matrices for the instanced render mode, written in place every frame
+    private int gpuVao; // Same cube mesh, but the per-instance data is the cube's static data from cubeDataVbo
+    private int cubeDataVbo; // Every cube in CubeStore layout, only the parts that change get uploaded again
+    private int cubeDataCapacity = 0; // Cubes cubeDataVbo has room for
+    private int gpuCubeCount = 0; // Cubes in cubeDataVbo
+    private long cubeDataUploads = 0; // glBufferSubData calls and bytes sent for cubeDataVbo, printed after headless runs
+    private long cubeDataBytes = 0;
+    private ChunkRenderer chunkRenderer; // Baked meshes of the cubes that don't rotate, null without --batching
 
-    private final Random random = new Random(); // Random
+    private Options options; // Command line flags
 
-    private final ArrayList<Cube> cubeList = new ArrayList<>(); // ArrayLists
+    // Scratch objects reused every frame, so the steady state render loop doesn't allocate anything
+    private final Matrix4f model = new Matrix4f(); // Model matrix of the cube currently being processed
+    private final Matrix4f view = new Matrix4f(); // Camera view matrix
+    private final Matrix4f viewProj = new Matrix4f(); // Projection * view, sent to the simulation for frustum culling
+    private final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16); // Uniform uploads
+    private final Vector3f pickOrigin = new Vector3f(); // Right click ray, only filled in on a click
+    private final Vector3f pickDir = new Vector3f();
 
     private void bindArrays() {
         vao = glGenVertexArrays(); // Set up those arrays
@@ -38,6 +70,158 @@ public class App {
         glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0); // Set the vertex attribute pointer, this is the location in the shader
         // 0 is the location in the shader, 3 is the number of components (x,y,z), GL_FLOAT is the type, false is normalized, 0 is stride, 0 is offset
         glEnableVertexAttribArray(0);
+
+        instanceStream = new StreamBuffer(GL_ARRAY_BUFFER, 16 * 64 * Float.BYTES, metrics); // Model matrices, one per cube, refilled every frame
+        for (int column = 0; column < 4; column++) { // A mat4 attribute takes up 4 locations, one vec4 column each
+            glEnableVertexAttribArray(1 + column); // The pointers are set every frame, see bindInstanceAttributes
+            glVertexAttribDivisor(1 + column, 1); // Advance once per instance instead of once per vertex
+        }
+
+        gpuVao = glGenVertexArrays(); // Second VAO for the GPU animated mode, shares the mesh buffers with the first one
+        cubeDataVbo = glGenBuffers();
+        glBindVertexArray(gpuVao);
+        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo); // The element buffer binding is part of the VAO, so it has to be bound again
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        glEnableVertexAttribArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, cubeDataVbo);
+        bindCubeDataAttributes();
+        for (int location = 1; location <= 2; location++) {
+            glEnableVertexAttribArray(location);
+            glVertexAttribDivisor(location, 1);
+        }
+        glBindVertexArray(0);
+    }
+
+    private void uploadCubeData() { // Patches the spans of the scene that changed into cubeDataVbo, cheap enough to check every frame
+        Simulation.CubeDataUpdate update = simulation.takeCubeData();
+        if (update == null) {
+            return;
+        }
+        metrics.begin(Stage.UPLOAD);
+        if (update.count() > cubeDataCapacity) {
+            growCubeData(update.count());
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, cubeDataVbo);
+        DirtyRanges ranges = update.ranges();
+        FloatBuffer data = update.data();
+        int offset = 0;
+        for (int r = 0; r < ranges.size(); r++) { // One call per span, the simulation already merged the ones close together
+            int floats = (ranges.end(r) - ranges.start(r)) * CubeStore.STRIDE;
+            glBufferSubData(GL_ARRAY_BUFFER, (long) ranges.start(r) * CubeStore.STRIDE * Float.BYTES, data.slice(offset, floats));
+            offset += floats;
+        }
+        cubeDataUploads += ranges.size();
+        cubeDataBytes += (long) offset * Float.BYTES;
+        gpuCubeCount = update.count();
+        metrics.end(Stage.UPLOAD);
+    }
+
+    private void growCubeData(int needed) {
+        // A bigger buffer with the old contents copied over on the GPU, since updates only carry what changed
+        int capacity = Math.max(needed, cubeDataCapacity * 2);
+        int grown = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, grown); // The copy binding points, so the VAO and array buffer bindings aren't touched
+        glBufferData(GL_COPY_WRITE_BUFFER, (long) capacity * CubeStore.STRIDE * Float.BYTES, GL_DYNAMIC_DRAW);
+        if (cubeDataCapacity > 0) {
+            glBindBuffer(GL_COPY_READ_BUFFER, cubeDataVbo);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, (long) cubeDataCapacity * CubeStore.STRIDE * Float.BYTES);
+        }
+        glDeleteBuffers(cubeDataVbo);
+        cubeDataVbo = grown;
+        cubeDataCapacity = capacity;
+        int boundVao = glGetInteger(GL_VERTEX_ARRAY_BINDING);
+        glBindVertexArray(gpuVao); // The attribute pointers still point at the old buffer
+        glBindBuffer(GL_ARRAY_BUFFER, cubeDataVbo);
+        bindCubeDataAttributes();
+        glBindVertexArray(boundVao);
+    }
+
+    private static void bindCubeDataAttributes() { // gpuVao has to be bound, and cubeDataVbo as the array buffer
+        // Two vec4s per cube straight out of the CubeStore: position and speed, then axis and padding
+        glVertexAttribPointer(1, 4, GL_FLOAT, false, CubeStore.STRIDE * Float.BYTES, 0);
+        glVertexAttribPointer(2, 4, GL_FLOAT, false, CubeStore.STRIDE * Float.BYTES, 4 * Float.BYTES);
+    }
+
+    private void drawGpuAnimated(float time) { // Draws every cube, the CPU only sets three uniforms per frame however many cubes there are
+        // No culling here, it would mean re-uploading the cube list every tick, the GPU clips what's off screen instead
+        metrics.begin(Stage.DRAW);
+        gpuAnimatedShader.setUniform1f(gpuTimeUniform, time);
+        glBindVertexArray(gpuVao);
+        glDrawElementsInstanced(GL_TRIANGLES, 36, GL_UNSIGNED_INT, 0, gpuCubeCount);
+        metrics.end(Stage.DRAW);
+    }
+
+    private void drawGpuCulled(float time) { // Same as drawGpuAnimated, but only the cubes a compute shader found in view are drawn
+        metrics.begin(Stage.DRAW);
+        gpuCuller.cull(viewProj, cubeDataVbo, gpuCubeCount);
+        gpuAnimatedShader.use(); // The cull switched programs
+        gpuAnimatedShader.setUniform1f(gpuTimeUniform, time);
+        gpuCuller.draw();
+        metrics.end(Stage.DRAW);
+    }
+
+    private void bindInstanceAttributes(int buffer, long offset) { // This frame's matrices start at offset, the VAO has to be bound
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        for (int column = 0; column < 4; column++) {
+            glVertexAttribPointer(1 + column, 4, GL_FLOAT, false, 16 * Float.BYTES, offset + (long) column * 4 * Float.BYTES);
+        }
+    }
+
+    private void drawInstanced(SceneSnapshot snapshot, float time) { // Draws every cube in the snapshot
+        int count = snapshot.visibleCount;
+        metrics.begin(Stage.UPLOAD);
+        // Mapped GL memory, so there's no copy after the maths, any wait for the GPU is recorded as the stall stage
+        FloatBuffer instances = instanceStream.begin(count * 16);
+        metrics.end(Stage.UPLOAD);
+
+        metrics.begin(Stage.TRANSFORM);
+        transformStage.compute(snapshot.visible, null, count, time, instances); // Pack every model matrix into the buffer, column major, same as the uniform
+        metrics.end(Stage.TRANSFORM);
+
+        metrics.begin(Stage.DRAW);
+        instanceStream.end(); // Only GL calls on this thread from here on
+        bindInstanceAttributes(instanceStream.buffer(), instanceStream.offset());
+        // One draw call for the whole cube list
+        glDrawElementsInstanced(GL_TRIANGLES, 36, GL_UNSIGNED_INT, 0, count);
+        instanceStream.fence(); // The region can be written again once the GPU is past this point
+        metrics.end(Stage.DRAW);
+    }
+
+    private void drawChunks(Matrix4f proj) { // Static cubes, same in every render mode, drawn with the plain shader and no model transform
+        metrics.begin(Stage.BATCHES);
+        chunkRenderer.update(); // Swaps in any chunks the builder thread finished
+        shader.use();
+        shader.setUniformMatrix4fv(viewUniform, view.get(matrixBuffer));
+        shader.setUniformMatrix4fv(projectionUniform, proj.get(matrixBuffer));
+        shader.setUniformMatrix4fv(modelUniform, model.identity().get(matrixBuffer)); // The vertices are already in world space
+        chunkRenderer.draw(viewProj);
+        metrics.end(Stage.BATCHES);
+    }
+
+    private void drawPerCube(SceneSnapshot snapshot, float time) { // Maths, uploads and draws are interleaved here, so it's all timed as the draw stage
+        metrics.begin(Stage.DRAW);
+        for (int i = 0; i < snapshot.visibleCount; i++) {
+            CubeStore.modelMatrix(snapshot.visible, i, time, model); // Get the model matrix for each cube
+            shader.setUniformMatrix4fv(modelUniform, model.get(matrixBuffer)); // Send the model matrix to the shader
+
+            // Draw the cube, 36 is the number of indices, GL_UNSIGNED_INT is the type, 0 is the offset
+            glDrawElements(GL_TRIANGLES, 36, GL_UNSIGNED_INT, 0);
+        }
+        metrics.end(Stage.DRAW);
+    }
+
+    private void pick() {
+        // Ray casts on the simulation thread, where the cubes are, and prints from there once it's answered, the frame doesn't wait
+        float ox = pickOrigin.x, oy = pickOrigin.y, oz = pickOrigin.z, dx = pickDir.x, dy = pickDir.y, dz = pickDir.z;
+        simulation.query(bvh -> bvh.raycast(ox, oy, oz, dx, dy, dz, Window.Z_FAR)).thenAccept(hit -> {
+            if (hit == null) {
+                System.out.println("Nothing under the cursor");
+            }
+            else {
+                System.out.printf("Picked cube %d, %.2f units away%n", hit.handle(), hit.distance());
+            }
+        });
     }
 
     private void loop() {
@@ -45,93 +229,301 @@ public class App {
         Matrix4f proj = new Matrix4f().perspective((float) Math.toRadians(45.0f), window.getAspect(), Window.Z_NEAR, Window.Z_FAR);
 
         glClearColor(0.2f, 0.3f, 0.3f, 1.0f); // Background color
-        while (!window.shouldClose()) { // Custom function to check if the window is closed
-            camera.handleMouseInput(window.handle()); // Custom mouse and keyboard input functions
-            camera.handleKeyboardInput(window.handle());
+        double lastTitleUpdate = 0.0;
+        long[] frameTimes = new long[window.isHeadless() ? options.frames : 0]; // Nanoseconds per frame, headless only
+        int frame = 0;
+        long frameStart = System.nanoTime();
+        while (!window.shouldClose() && (!window.isHeadless() || frame < options.frames)) { // Custom function to check if the window is closed
+            metrics.begin(Stage.INPUT);
+            if (!window.isHeadless()) { // Nobody to take input from when headless, the camera stays put
+                camera.handleMouseInput(window.handle()); // Custom mouse and keyboard input functions
+                camera.handleKeyboardInput(window.handle());
+            }
+            metrics.end(Stage.INPUT);
+            shaderLibrary.applyReloads(); // Swaps in any shaders the hot reload thread finished compiling
+
+            camera.getViewMatrix(view);
+            proj.mul(view, viewProj);
+            simulation.publishCamera(viewProj); // The next tick culls against this
+            if (camera.takePickRay(viewProj, pickOrigin, pickDir)) {
+                pick();
+            }
+            if (window.isHeadless()) { // Headless runs tick in lockstep with the frames so every run draws the same thing
+                simulation.step();
+            }
+            SceneSnapshot snapshot = simulation.latest(); // Scene changes (+ and - keys) and culling already happened on the simulation thread
+            RenderMode mode = window.getRenderMode();
+            if (mode == RenderMode.GPU_CULLED && gpuCuller == null) {
+                mode = RenderMode.GPU_ANIMATED; // No compute shaders, fall back to drawing everything
+            }
 
+            metrics.beginGpu(); // Everything up to the swap is timed on the GPU side too
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); // Clear the screen and depth buffer at the start of each frame
 
-            shader.use(); // Use the shader program, this is a custom function in the shader class
+            glBindVertexArray(vao); // Bind the vertex array object, it's in here to allow dynamic cube creation
+            uploadCubeData(); // Done in every mode so switching to GPU animated has the current scene straight away
 
-            // Lazy way to pass data between classes, although technically this is "good" because
-            if (camera.createCube) { // it can miss a frame and still create a cube next frame
-                cubeList.add(new Cube(new Vector3f(10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f)),
-                    random.nextBoolean()));
-                
-                camera.createCube = false; // Reset the create cube flag
-            }
-            if (camera.deleteCube) {
-                if (!cubeList.isEmpty()) { // Make sure we're not accessing an illegal index
-                    cubeList.remove(cubeList.size() - 1); // Delete the latest cube
+            // Same time for every cube in the frame, from the simulation's clock, headless runs step a fixed 60th of a second
+            float time = window.isHeadless() ? frame / 60.0f : (float) simulation.clock();
+            switch (mode) { // Instanced is the default, the I key cycles through the others to compare frame times
+                case INSTANCED -> {
+                    instancedShader.use(); // Use the shader program, this is a custom function in the shader class
+                    instancedShader.setUniformMatrix4fv(instancedViewUniform, view.get(matrixBuffer)); // Send the view matrix to the shader
+                    instancedShader.setUniformMatrix4fv(instancedProjectionUniform, proj.get(matrixBuffer)); // Send the projection matrix to the shader
+                    drawInstanced(snapshot, time);
+                }
+                case GPU_ANIMATED, GPU_CULLED -> {
+                    gpuAnimatedShader.use();
+                    gpuAnimatedShader.setUniformMatrix4fv(gpuViewUniform, view.get(matrixBuffer));
+                    gpuAnimatedShader.setUniformMatrix4fv(gpuProjectionUniform, proj.get(matrixBuffer));
+                    if (mode == RenderMode.GPU_CULLED) {
+                        drawGpuCulled(time);
+                    }
+                    else {
+                        drawGpuAnimated(time);
+                    }
+                }
+                case PER_CUBE -> {
+                    shader.use();
+                    shader.setUniformMatrix4fv(viewUniform, view.get(matrixBuffer));
+                    shader.setUniformMatrix4fv(projectionUniform, proj.get(matrixBuffer));
+                    drawPerCube(snapshot, time);
                 }
-                camera.deleteCube = false; // Reset the delete cube flag
             }
 
-            glBindVertexArray(vao); // Bind the vertex array object, it's in here to allow dynamic cube creation
-            
-            shader.setUniformMatrix4fv("view", camera.getViewMatrix().get(new float[16])); // Send the view matrix to the shader
-            shader.setUniformMatrix4fv("projection", proj.get(new float[16])); // Send the projection matrix to the shader
-
-            for (int i = 0; i < cubeList.size(); i++) {
-                Matrix4f model = cubeList.get(i).getModelMatrix((float) glfwGetTime(), i); // Get the model matrix for each cube
-                shader.setUniformMatrix4fv("model", model.get(new float[16])); // Send the model matrix to the shader
-                
-                // Draw the cube, 36 is the number of indices, GL_UNSIGNED_INT is the type, 0 is the offset
-                glDrawElements(GL_TRIANGLES, 36, GL_UNSIGNED_INT, 0);
+            if (chunkRenderer != null) {
+                drawChunks(proj);
             }
 
             glBindVertexArray(0); // Unbind the vertex array object
+            metrics.endGpu();
+
+            if (time - lastTitleUpdate > 0.5) { // Stats in the title bar, twice a second so the string building doesn't add up
+                String stats = mode == RenderMode.GPU_ANIMATED ? gpuCubeCount + " cubes, GPU animated"
+                    : mode == RenderMode.GPU_CULLED ? gpuCubeCount + " cubes, GPU culled" // The visible count never leaves the GPU
+                    : snapshot.visibleCount + " visible, " + snapshot.culledCount + " culled";
+                if (chunkRenderer != null) {
+                    stats += ", " + snapshot.batchedCount + " static in " + chunkRenderer.chunkCount() + " chunks";
+                }
+                window.setTitleSuffix(metrics.isEnabled() ? stats + " | " + metrics.summary() : stats);
+                lastTitleUpdate = time;
+            }
+            if (metrics.intervalElapsed()) { // Writes a CSV row per stage if --metrics-out was passed
+                metrics.endInterval();
+            }
 
             // Custom function to update the window, swap buffers (double buffering for smoothness) and poll events (keyboard and mouse input)
+            metrics.begin(Stage.SWAP);
             window.update();
+            metrics.end(Stage.SWAP);
+
+            long now = System.nanoTime();
+            if (frame == 0) { // Launch to first frame on screen, including building or loading the scene
+                metrics.record(Stage.STARTUP, now - launchNanos);
+                // The process start time also covers JVM startup before main, which is what a CDS archive speeds up
+                long sinceProcessStart = ProcessHandle.current().info().startInstant()
+                    .map(start -> Duration.between(start, Instant.now()).toMillis()).orElse(-1L);
+                System.out.printf("First frame after %.1f ms, %d ms since the process started%n", (now - launchNanos) / 1e6, sinceProcessStart);
+            }
+            metrics.record(Stage.FRAME, now - frameStart);
+            if (window.isHeadless()) {
+                frameTimes[frame] = now - frameStart;
+            }
+            frameStart = now;
+            frame++;
+        }
+        if (window.isHeadless()) {
+            printFrameStats(frameTimes, simulation.latest().totalCount);
         }
-        glDeleteVertexArrays(vao); // Delete the vertex array object and buffer object at the end of the program
+        glDeleteVertexArrays(vao); // Delete the vertex array object and buffer objects at the end of the program
         glDeleteBuffers(vbo);
+        glDeleteBuffers(ebo);
+        instanceStream.cleanup();
+        if (chunkRenderer != null) {
+            chunkRenderer.cleanup();
+        }
+        glDeleteVertexArrays(gpuVao);
+        glDeleteBuffers(cubeDataVbo);
+        if (gpuCuller != null) {
+            gpuCuller.cleanup();
+        }
+    }
+
+    private void printFrameStats(long[] frameTimes, int cubeCount) {
+        long total = 0;
+        for (long t : frameTimes) {
+            total += t;
+        }
+        long[] sorted = frameTimes.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%d frames, %d cubes, seed %d%n", sorted.length, cubeCount, options.seed);
+        System.out.printf("%.1f fps average over %.2f s%n", sorted.length / (total / 1e9), total / 1e9);
+        System.out.printf("Frame time ms: min %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+            sorted[0] / 1e6, percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.90) / 1e6, percentile(sorted, 0.99) / 1e6,
+            sorted[sorted.length - 1] / 1e6);
+        if (instanceStream.isPersistent()) {
+            System.out.printf("Instance uploads (persistent mapped): %d stalls, %.3f ms total%n", instanceStream.stallCount(),
+                instanceStream.stallNanos() / 1e6);
+        }
+        else { // No fences to count, waits happen inside the driver's map and show up in the upload stage
+            System.out.println("Instance uploads (orphaned map): stalls aren't measured, see the upload stage");
+        }
+        System.out.printf("Cube data uploads: %d glBufferSubData calls, %.1f KB total%n", cubeDataUploads, cubeDataBytes / 1024.0);
+    }
+
+    private static long percentile(long[] sorted, double fraction) { // Nearest rank
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    private void buildScene(CubeStore cubes, Random random) { // Loads or generates the starting scene, runs on a background thread
+        long sceneStart = System.nanoTime();
+        if (options.scene != null) { // Straight from the file's columns into the store
+            int loaded = SceneFile.load(Path.of(options.scene), cubes);
+            System.out.printf("Loaded %d cubes from %s in %.1f ms%n", loaded, options.scene, (System.nanoTime() - sceneStart) / 1e6);
+        }
+        else {
+            cubes.add(0.0f, 0.0f, 0.0f, false); // Add a cube at the origin, same as the default Cube constructor
+
+            // The default 10 cubes fill a 10x10x10 box, bigger scenes grow the box to keep the same density
+            float extent = 10 * (float) Math.max(1.0, Math.cbrt(options.cubes / 10.0));
+            int i = 0; // Vikrant asked for a while loop
+            while (i < options.cubes - 1) { // Add 9 (by default) more cubes at random positions
+                // The first 9 always rotate like they used to, any extra ones are a coin flip like the + key
+                cubes.add(extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f), extent * random.nextFloat(-0.5f, 0.5f),
+                    i < 9 || random.nextBoolean());
+                i++;
+            }
+            //if (int i = 0; i < 9; i++) { // Add 9 more cubes at random positions
+            //    cubeList.add(new Cube(new Vector3f(10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f)),
+            //        true));
+            //}
+        }
+        if (options.saveScene != null) {
+            SceneFile.save(Path.of(options.saveScene), cubes);
+            System.out.println("Saved " + cubes.size() + " cubes to " + options.saveScene);
+        }
     }
 
     public void run(int width, int height, String title) {
+        Options options = new Options();
+        options.width = width;
+        options.height = height;
+        options.title = title;
+        run(options);
+    }
+
+    public void run(Options options) {
+        this.options = options;
+        Random random = new Random(options.seed); // Random, seeded from the options so headless runs are repeatable
 		// Constructors
-        window = new Window(width, height, title); // Overloaded constructor
-		camera = new Camera(); // Default constructor
-        window.init(); // Class function
+        window = new Window(options.width, options.height, options.title, options.headless); // Overloaded constructor
+        window.setRenderMode(options.renderMode);
+        // -Ddemoproject.workers=N to measure scaling, 1 runs the matrix maths serially on the render thread
+        transformStage = new TransformStage(Integer.getInteger("demoproject.workers", Runtime.getRuntime().availableProcessors()));
+        metrics = new FrameMetrics(options.metrics, options.metricsOut == null ? null : Path.of(options.metricsOut), options.metricsInterval);
+        simulation = new Simulation(random, metrics, options.tickRate, options.staticBatching);
+		camera = new Camera(simulation.commands()); // Overloaded constructor, the + and - keys become commands for the simulation
+        // Work that doesn't need GL runs on other threads while this one brings up GLFW and the context
+        CubeStore cubes = simulation.cubes(); // Only the scene thread touches it until the join below
+        CompletableFuture<Void> sceneReady = CompletableFuture.runAsync(() -> buildScene(cubes, random));
+		shaderLibrary = new ShaderLibrary(options.shaderDir == null ? null : Path.of(options.shaderDir),
+			options.shaderCache ? ProgramCache.defaultDirectory() : null);
+		shaderLibrary.prefetch(Shader.CUBE_VERTEX, Shader.INSTANCED_VERTEX, Shader.GPU_ANIMATED_VERTEX, Shader.FRAGMENT, Shader.CULL_COMPUTE);
 
-        cubeList.add(new Cube()); // Add a cube at the origin
+        window.init(); // Class function
+        metrics.initGpuTiming(); // Needs the GL context from init()
 
-        int i = 0; // Vikrant asked for a while loop
-        while (i < 9) { // Add 9 more cubes at random positions
-            cubeList.add(new Cube(new Vector3f(10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f)),
-                true));
-            i++;
+        bindArrays(); // Bind the vertex array object and buffer object
+        if (simulation.batcher() != null) {
+            chunkRenderer = new ChunkRenderer(simulation.batcher());
         }
-        //if (int i = 0; i < 9; i++) { // Add 9 more cubes at random positions
-        //    cubeList.add(new Cube(new Vector3f(10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f)),
-        //        true));
-        //}
 
-        bindArrays(); // Bind the vertex array object and buffer object
+		long shadersStart = System.nanoTime();
+		shader = shaderLibrary.load(Shader.CUBE_VERTEX, Shader.FRAGMENT); // Straight from the binary cache on warm starts
+		instancedShader = shaderLibrary.load(Shader.INSTANCED_VERTEX, Shader.FRAGMENT);
+		modelUniform = shader.uniform("model"); // Look the uniforms up once, throws here if one is missing
+		viewUniform = shader.uniform("view");
+		projectionUniform = shader.uniform("projection");
+		instancedViewUniform = instancedShader.uniform("view");
+		instancedProjectionUniform = instancedShader.uniform("projection");
+		gpuAnimatedShader = shaderLibrary.load(Shader.GPU_ANIMATED_VERTEX, Shader.FRAGMENT);
+		gpuViewUniform = gpuAnimatedShader.uniform("view");
+		gpuProjectionUniform = gpuAnimatedShader.uniform("projection");
+		gpuTimeUniform = gpuAnimatedShader.uniform("time");
+		if (GpuCuller.isSupported()) { // Otherwise the GPU culled mode draws like the GPU animated one
+			try {
+				gpuCuller = new GpuCuller(shaderLibrary.loadCompute(Shader.CULL_COMPUTE), vbo, ebo);
+			}
+			catch (IllegalStateException e) { // A driver that claims 4.3 but can't build the shader, same fallback
+				System.out.println("GPU culling is off, the compute shader didn't build: " + e.getMessage());
+			}
+		}
+		else {
+			System.out.println("GPU culling is off, the context doesn't have compute shaders (GL 4.3)");
+		}
+		System.out.printf("%s, ready in %.1f ms%n", shaderLibrary.summary(), (System.nanoTime() - shadersStart) / 1e6);
+		shaderLibrary.startHotReload(window); // Only with --shader-dir
 
-		shader = new Shader(); // Default constructor, this is the shader class
+        try {
+            sceneReady.join(); // Usually long done by now, the window and shaders take longer than a small scene
+        }
+        catch (CompletionException e) { // Rethrow what buildScene threw, e.g. a bad scene file
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+        // F5 saves back to the scene we loaded or saved, otherwise scene.bin in the working directory
+        camera.setSavePath(Path.of(options.scene != null ? options.scene : options.saveScene != null ? options.saveScene : "scene.bin"));
 
+        if (!window.isHeadless()) {
+            simulation.start(); // From here on only the simulation thread touches the cubes
+        }
         loop(); // Main loop, this is where the rendering happens, will run until the window is closed
 
+        shaderLibrary.cleanup(); // Stops the hot reload thread first
         shader.cleanup(); // No destructors in java :( Cons of a garbage collector
+        instancedShader.cleanup();
+        gpuAnimatedShader.cleanup();
+        simulation.cleanup();
+        transformStage.cleanup();
+        metrics.cleanup();
         window.cleanup();
     }
 
     public static void main(String[] args) { // Entry point of the program, the main function
-		// User Input
-		System.out.print("Enter a title for the window: ");
-		String title = "I set this up with a constuctor!"; // Default title
-		Scanner scanner;
-		try { // Try catch blocks
-			scanner = new Scanner(System.in); // The scanner actually gives a warning for not putting this in a try catch block
-			title = scanner.nextLine(); // Get custom title from the user
-			scanner.close(); // Close the scanner, to avoid memory leaks
+		Options options;
+		try {
+			options = Options.parse(args); // --headless, --cubes and friends, see Options.USAGE
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.out.print(Options.USAGE);
+			System.exit(1);
+			return;
+		}
+		if (options.help) {
+			System.out.print(Options.USAGE);
+			return;
+		}
+
+		if (options.askTitle && options.title == null && !options.headless) { // Only with --ask-title, so unattended launches never block on stdin
+			// User Input
+			long promptStart = System.nanoTime(); // Time spent typing doesn't count towards the time to first frame
+			System.out.print("Enter a title for the window: ");
+			options.title = "I set this up with a constuctor!"; // Default title
+			Scanner scanner;
+			try { // Try catch blocks
+				scanner = new Scanner(System.in); // The scanner actually gives a warning for not putting this in a try catch block
+				options.title = scanner.nextLine(); // Get custom title from the user
+				scanner.close(); // Close the scanner, to avoid memory leaks
+			}
+			catch (Exception e) { // Catch any exceptions that occur
+				System.out.println("Invalid input, using default title.");
+			}
+			launchNanos += System.nanoTime() - promptStart;
 		}
-		catch (Exception e) { // Catch any exceptions that occur
-			System.out.println("Invalid input, using default title.");
+		else if (options.title == null) {
+			options.title = options.headless ? "DemoProject (headless)" : "DemoProject";
 		}
 
-		new App().run(1600, 900, title); // Constructor
+		new App().run(options); // Constructor
     }
 }
\ No newline at end of file
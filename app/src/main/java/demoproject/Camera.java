@@ -1,10 +1,15 @@
 package demoproject;
 
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
 import org.joml.Vector3f;
 import static org.lwjgl.glfw.GLFW.*;
 
-public class Camera { // No constructor required
+public class Camera {
     private final float radius = 10.0f; // Distance from the origin
     private float azimuth = 0.0f; // Horizontal angle (in radians)
     private float elevation = (float) Math.toRadians(30.0f); // Vertical angle (in radians)
@@ -16,20 +21,51 @@ public class Camera { // No constructor required
     private float lastMouseX = 0.0f; // For calculating mouse movement
     private float lastMouseY = 0.0f;
     private boolean firstMouse = true; // To prevent the camera from jumping on the first mouse movement
+    private final double[] mouseX = new double[1]; // Glfw function expects double arrays because in c it's meant to be a pointer to a double
+    private final double[] mouseY = new double[1]; // Kept as fields so reading the cursor doesn't allocate every frame
+
+    private boolean wasPickPressed = false; // Right click rollover, same as the keys
+    private boolean hasPick = false; // A right click nobody has taken a ray for yet
+    private final int[] viewport = new int[4]; // Window size at the click, for unprojecting, x and y stay 0
+    private float pickX, pickY; // Where the click was, in window coordinates with y going up like OpenGL's
 
-    public boolean createCube = false; // Create and delete cube flags
-    public boolean deleteCube = false;
+    private static final int BULK_COUNT = 1000; // Cubes added or removed by shift + and shift -
+    private final Queue<SceneCommand> commands; // Create and delete cube requests go here, the simulation thread picks them up
     private boolean wasCreateCubePressed = false; // To stop key rollover
     private boolean wasDeleteCubePressed = false;
+    private boolean wasSavePressed = false;
+    private Path savePath = Path.of("scene.bin"); // Where F5 saves the scene to
+
+    public Camera() { // Default constructor, keeps its own queue, for when nothing is listening for commands
+        this(new ConcurrentLinkedQueue<>());
+    }
+
+    public Camera(Queue<SceneCommand> commands) { // Overloaded constructor, usually the simulation's command queue
+        this.commands = commands;
+    }
+
+    public void setSavePath(Path savePath) {
+        this.savePath = savePath;
+    }
 
     public void handleMouseInput(long windowHandle) {
-        double[] mouseX = new double[1]; // Glfw function expects double arrays because in c it's meant to be a pointer to a double
-        double[] mouseY = new double[1];
         glfwGetCursorPos(windowHandle, mouseX, mouseY);
 
         // Only move the camera if the mouse is pressed and the cursor is inside the window
         boolean isDragging = glfwGetMouseButton(windowHandle, GLFW_MOUSE_BUTTON_LEFT) == GLFW_PRESS;
         processMouseInput((float) mouseX[0], (float) mouseY[0], isDragging);
+
+        boolean isPickPressed = glfwGetMouseButton(windowHandle, GLFW_MOUSE_BUTTON_RIGHT) == GLFW_PRESS; // Right click picks a cube
+        if (isPickPressed && !wasPickPressed) {
+            int[] width = new int[1], height = new int[1]; // Only on a click, cursor positions are in window size units not pixels
+            glfwGetWindowSize(windowHandle, width, height);
+            viewport[2] = width[0];
+            viewport[3] = height[0];
+            pickX = (float) mouseX[0];
+            pickY = height[0] - (float) mouseY[0]; // Glfw's y goes down from the top
+            hasPick = true;
+        }
+        wasPickPressed = isPickPressed;
     }
 
     public void handleKeyboardInput(long windowHandle) {
@@ -58,27 +94,25 @@ public class Camera { // No constructor required
     }
 
     public void processKeyboardInput(long windowHandle) {
-        Vector3f forwardVec = new Vector3f( // Bullshitery that I pulled from an old project at https://github.com/fl2mex/OpenGL-Test
-            -(float) Math.sin(azimuth),
-            0.0f,
-            -(float) Math.cos(azimuth)).normalize(); // Calculate forward vector based on azimuth angle
-
-        Vector3f rightVec = new Vector3f(
-            (float) Math.sin(azimuth + Math.PI / 2),
-            0.0f,
-            (float) Math.cos(azimuth + Math.PI / 2)).normalize(); // Calculate right vector based on azimuth angle
+        // Bullshitery that I pulled from an old project at https://github.com/fl2mex/OpenGL-Test
+        // Forward and right vectors based on the azimuth angle, kept as plain floats so nothing is allocated
+        // Both already have a length of 1 since they're a sin/cos pair with y = 0
+        float forwardX = -(float) Math.sin(azimuth) * moveSpeed;
+        float forwardZ = -(float) Math.cos(azimuth) * moveSpeed;
+        float rightX = (float) Math.sin(azimuth + Math.PI / 2) * moveSpeed;
+        float rightZ = (float) Math.cos(azimuth + Math.PI / 2) * moveSpeed;
 
         if (glfwGetKey(windowHandle, GLFW_KEY_W) == GLFW_PRESS) { // Forward movement, W key
-            position.add(forwardVec.mul(moveSpeed, new Vector3f()));
+            position.add(forwardX, 0.0f, forwardZ);
         }
         if (glfwGetKey(windowHandle, GLFW_KEY_S) == GLFW_PRESS) { // Backward movement, S key
-            position.sub(forwardVec.mul(moveSpeed, new Vector3f()));
+            position.sub(forwardX, 0.0f, forwardZ);
         }
         if (glfwGetKey(windowHandle, GLFW_KEY_A) == GLFW_PRESS) { // Left movement, A key
-            position.sub(rightVec.mul(moveSpeed, new Vector3f()));
+            position.sub(rightX, 0.0f, rightZ);
         }
         if (glfwGetKey(windowHandle, GLFW_KEY_D) == GLFW_PRESS) { // Right movement, D key
-            position.add(rightVec.mul(moveSpeed, new Vector3f()));
+            position.add(rightX, 0.0f, rightZ);
         }
         if (glfwGetKey(windowHandle, GLFW_KEY_Q) == GLFW_PRESS) { // Up movement, Q key
             position.y += moveSpeed;
@@ -86,24 +120,45 @@ public class Camera { // No constructor required
         if (glfwGetKey(windowHandle, GLFW_KEY_E) == GLFW_PRESS) { // Down movement, E key
             position.y -= moveSpeed;
         }
+        // Holding shift makes + and - work on BULK_COUNT cubes at once, still one command each
+        boolean isShiftPressed = glfwGetKey(windowHandle, GLFW_KEY_LEFT_SHIFT) == GLFW_PRESS || glfwGetKey(windowHandle, GLFW_KEY_RIGHT_SHIFT) == GLFW_PRESS;
         boolean isCreateCubePressed = glfwGetKey(windowHandle, GLFW_KEY_EQUAL) == GLFW_PRESS; // Create cube flag
         if (isCreateCubePressed && !wasCreateCubePressed) { // If the plus key is pressed and was not pressed before
-            createCube = true;
+            commands.add(isShiftPressed ? new SceneCommand.AddRandomCubes(BULK_COUNT) : SceneCommand.ADD_RANDOM_CUBE);
         }
         wasCreateCubePressed = isCreateCubePressed; // Reset the create cube flag
         boolean isDeleteCubePressed = glfwGetKey(windowHandle, GLFW_KEY_MINUS) == GLFW_PRESS; // Delete cube flag
         if (isDeleteCubePressed && !wasDeleteCubePressed) { // If the minus key is pressed and was not pressed before
-            deleteCube = true;
+            commands.add(isShiftPressed ? new SceneCommand.RemoveLastCubes(BULK_COUNT) : SceneCommand.REMOVE_LAST_CUBE);
         }
         wasDeleteCubePressed = isDeleteCubePressed; // Reset the delete cube flag
+        boolean isSavePressed = glfwGetKey(windowHandle, GLFW_KEY_F5) == GLFW_PRESS; // Save the scene, same rollover check
+        if (isSavePressed && !wasSavePressed) {
+            commands.add(new SceneCommand.SaveScene(savePath));
+        }
+        wasSavePressed = isSavePressed;
+    }
+
+    public boolean takePickRay(Matrix4fc viewProj, Vector3f origin, Vector3f dir) {
+        // If there was a right click since the last call, fills in the ray through it, from the near plane towards the far one
+        if (!hasPick) {
+            return false;
+        }
+        hasPick = false;
+        viewProj.unprojectRay(pickX, pickY, viewport, origin, dir);
+        return true;
     }
 
     public Matrix4f getViewMatrix() {
+        return getViewMatrix(new Matrix4f()); // Allocates, use the overload below in the render loop
+    }
+
+    public Matrix4f getViewMatrix(Matrix4f dest) {
         // Convert spherical coordinates to Cartesian coordinates, more stuff pulled from my old project at https://github.com/fl2mex/OpenGL-Test
         float x = (float) (radius * Math.cos(elevation) * Math.sin(azimuth)) + position.x;
         float y = (float) (radius * Math.sin(elevation)) + position.y;
         float z = (float) (radius * Math.cos(elevation) * Math.cos(azimuth)) + position.z;
         // Look at the central position of spherical camera from the origin
-        return new Matrix4f().lookAt(new Vector3f(x, y, z), new Vector3f(position.x, position.y, position.z), new Vector3f(0.0f, 1.0f, 0.0f));
+        return dest.setLookAt(x, y, z, position.x, position.y, position.z, 0.0f, 1.0f, 0.0f); // Scalar overload, no temporary vectors
     }
 }
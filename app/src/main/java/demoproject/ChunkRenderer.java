@@ -0,0 +1,132 @@
+package demoproject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+import static org.lwjgl.opengl.GL33.*;
+
+public class ChunkRenderer { // GL side of the StaticBatcher, one VAO per baked chunk, render thread only
+    // Spreads a big rebuild (like the starting scene) over a few frames, by cubes rather than meshes since that's what the upload
+    // costs, 16k cubes is about 7 MB, a million cube scene with half of them static is up in about 30 frames
+    private static final int UPLOAD_CUBES_PER_FRAME = 16384;
+
+    private final StaticBatcher batcher;
+    private final HashMap<Long, GpuChunk> chunks = new HashMap<>();
+    private final ArrayList<GpuChunk> list = new ArrayList<>(); // Same chunks, for iterating without touching the map
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private int drawnChunks = 0;
+
+    private static class GpuChunk {
+        int vao, vbo, ebo;
+        int indexCount;
+        int version;
+        int listIndex;
+        long key;
+        float minX, minY, minZ, maxX, maxY, maxZ; // Copied out of the mesh so its CPU side buffers can be collected
+    }
+
+    public ChunkRenderer(StaticBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    public int chunkCount() {
+        return list.size();
+    }
+
+    public int drawnChunks() { // Chunks that passed the frustum test in the last draw()
+        return drawnChunks;
+    }
+
+    public void update() { // Uploads finished meshes, each one replaces its chunk in a single step so a half built chunk is never drawn
+        // At least one mesh a frame even if it's bigger than the budget, stale and empty ones don't count, they upload nothing
+        StaticBatcher.ChunkMesh mesh;
+        int uploaded = 0;
+        while (uploaded < UPLOAD_CUBES_PER_FRAME && (mesh = batcher.poll()) != null) {
+            GpuChunk old = chunks.get(mesh.key);
+            if (old != null && old.version >= mesh.version) {
+                continue; // Stale, a newer mesh for this chunk is already up
+            }
+            if (mesh.cubeCount == 0) {
+                if (old != null) {
+                    remove(old);
+                }
+                continue;
+            }
+            GpuChunk chunk = new GpuChunk();
+            chunk.vao = glGenVertexArrays();
+            chunk.vbo = glGenBuffers();
+            chunk.ebo = glGenBuffers();
+            chunk.indexCount = mesh.indices.remaining();
+            chunk.version = mesh.version;
+            chunk.key = mesh.key;
+            chunk.minX = mesh.minX;
+            chunk.minY = mesh.minY;
+            chunk.minZ = mesh.minZ;
+            chunk.maxX = mesh.maxX;
+            chunk.maxY = mesh.maxY;
+            chunk.maxZ = mesh.maxZ;
+            glBindVertexArray(chunk.vao);
+            glBindBuffer(GL_ARRAY_BUFFER, chunk.vbo);
+            glBufferData(GL_ARRAY_BUFFER, mesh.vertices, GL_STATIC_DRAW);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, chunk.ebo);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, mesh.indices, GL_STATIC_DRAW);
+            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0); // Same layout as the single cube, so the normal shader works
+            glEnableVertexAttribArray(0);
+            glBindVertexArray(0);
+            if (old != null) { // Swap in place, the old buffers go straight away since the draw that used them is already queued
+                chunk.listIndex = old.listIndex;
+                list.set(old.listIndex, chunk);
+                delete(old);
+            }
+            else {
+                chunk.listIndex = list.size();
+                list.add(chunk);
+            }
+            chunks.put(mesh.key, chunk);
+            uploaded += mesh.cubeCount;
+        }
+    }
+
+    public void draw(Matrix4fc viewProj) {
+        // Draws every chunk in view, the caller sets up the shader with an identity model matrix since the vertices are in world space
+        // The winding in Cube.indices is consistent, so back faces are culled here, the rotating cubes still draw both sides
+        frustum.set(viewProj);
+        glEnable(GL_CULL_FACE);
+        int drawn = 0;
+        for (GpuChunk chunk : list) {
+            if (frustum.testAab(chunk.minX, chunk.minY, chunk.minZ, chunk.maxX, chunk.maxY, chunk.maxZ)) {
+                glBindVertexArray(chunk.vao);
+                glDrawElements(GL_TRIANGLES, chunk.indexCount, GL_UNSIGNED_INT, 0);
+                drawn++;
+            }
+        }
+        glDisable(GL_CULL_FACE);
+        drawnChunks = drawn;
+    }
+
+    public void cleanup() {
+        for (GpuChunk chunk : list) {
+            delete(chunk);
+        }
+        list.clear();
+        chunks.clear();
+    }
+
+    private void remove(GpuChunk chunk) {
+        chunks.remove(chunk.key);
+        GpuChunk last = list.remove(list.size() - 1);
+        if (last != chunk) {
+            list.set(chunk.listIndex, last);
+            last.listIndex = chunk.listIndex;
+        }
+        delete(chunk);
+    }
+
+    private static void delete(GpuChunk chunk) {
+        glDeleteVertexArrays(chunk.vao);
+        glDeleteBuffers(chunk.vbo);
+        glDeleteBuffers(chunk.ebo);
+    }
+}
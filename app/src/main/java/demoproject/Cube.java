@@ -2,8 +2,11 @@ package demoproject;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.joml.Vector3fc;
 
 public class Cube {
+    public static final Vector3fc ROTATION_AXIS = new Vector3f(0.5f, 1.0f, 0.0f).normalize(); // Normalized once instead of every frame
+
     private final Vector3f position; // Position of the cube in world space, randomly set in the app class
     private final boolean shouldRotate; // Whether the cube should rotate or not, randomly set in the app class
 
@@ -18,14 +21,18 @@ public class Cube {
     }
 
     public Matrix4f getModelMatrix(float time, int index) {
+        return getModelMatrix(time, index, new Matrix4f()); // Allocates, use the overload below in the render loop
+    }
+
+    public Matrix4f getModelMatrix(float time, int index, Matrix4f dest) {
         // 4x4 identity matrix then translated to the position of the cube, rotated (if shouldRotate is true) around the y-axis
-        return new Matrix4f().identity().translate(position) // Matrices are done using the builder pattern
-            .rotate((float) Math.toRadians(20.0f * (index + 1) * (shouldRotate ? 1 : 0)) * time, new Vector3f(0.5f, 1.0f, 0.0f).normalize());
+        return dest.translation(position) // Matrices are done using the builder pattern, translation() resets dest to identity first
+            .rotate((float) Math.toRadians(20.0f * (index + 1) * (shouldRotate ? 1 : 0)) * time, ROTATION_AXIS);
     }
 
     // Vertices and indices for the cube are shared among all instances, no data duplication
-    // Also, these cubes are not in the right winding order, but the cubes are currently hardcoded so its a lot off effort to fix
-    // I'll just render both sides of the faces
+    // Every triangle is counter clockwise seen from outside the cube (OpenGL's default front face), so back faces can be culled
+    // Half the faces used to be wound the other way, that's fixed in the indices below, the vertices are unchanged
     public static final float[] vertices = {
         -0.5f,0.5f,-0.5f,
         -0.5f,-0.5f,-0.5f,
@@ -58,17 +65,17 @@ public class Cube {
         0.5f,-0.5f,0.5f
     };
     public static final int[] indices = {
-        0,1,3,
-        3,1,2,
-        4,5,7,
+        0,3,1, // Back (-z)
+        3,2,1,
+        4,5,7, // Front (+z)
         7,5,6,
-        8,9,11,
-        11,9,10,
-        12,13,15,
+        8,11,9, // Right (+x)
+        11,10,9,
+        12,13,15, // Left (-x)
         15,13,14,
-        16,17,19,
-        19,17,18,
-        20,21,23,
+        16,19,17, // Top (+y)
+        19,18,17,
+        20,21,23, // Bottom (-y)
         23,21,22
     };
 }
@@ -0,0 +1,426 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+public class CubeBvh { // Bounding volume hierarchy over a CubeStore, for ray picking and radius and box queries
+    // Keeps its own copy of every cube it was built over, in leaf order, cubes never move so the copy only goes stale when one is
+    // removed, and the handle next to it says so
+    // Node boxes fit a rotating cube at any angle (CUBE_RADIUS around its centre), so rotation never makes them wrong and there's
+    // nothing to refit, only the cubes a query actually reaches get their box at the current rotation, the tree is only rebuilt
+    // once enough cubes were added or removed that it would fit badly, cubes added since the last build are kept out of the tree
+    // and tested one by one. Only use it from the thread that owns the store
+    private static final int STRIDE = CubeStore.STRIDE; // Same layout as the store so cubes copy over as they are
+    private static final int LEAF_SIZE = 4; // Cubes per leaf at most
+    private static final int MIN_REBUILD_CHANGES = 1024; // Adds and removes before a rebuild, or an eighth of the scene if that's more
+
+    private final CubeStore cubes;
+    // Nodes in depth first order, the left child always comes straight after its parent
+    private float[] bounds = new float[0]; // Per node: min x, y, z, max x, y, z
+    private int[] first = new int[0]; // Per node: where a leaf's cubes start, or the index of an inner node's right child
+    private int[] size = new int[0]; // Per node: cubes under it when it was built, LEAF_SIZE or fewer means it's a leaf
+    private int nodeCount = 0;
+    private final Cubes tree = new Cubes(); // Cubes in the tree, grouped by leaf, removed ones stay until the next build
+    private final Cubes added = new Cubes(); // Cubes added since the last build, refilled by every update()
+    private long builtChanges = -1; // The store's changeCount() at the last build, -1 so the first update() builds
+    private float time; // Animation time of the last update, the rotation ray casts and box queries test against
+    private final int[] stack = new int[64]; // Traversal, the tree is never deeper than about log2(cubes)
+    private final float[] extent = new float[3]; // Scratch, the half size of one cube's box, see fitCube()
+
+    public record Hit(long handle, float distance) {} // A ray cast result, distance along the normalized ray direction
+
+    private static final class Cubes { // Copies of cubes: handle and store layout data
+        long[] handles = new long[0];
+        float[] data = new float[0];
+        int count = 0;
+
+        void resize(int capacity) {
+            handles = Arrays.copyOf(handles, capacity);
+            data = Arrays.copyOf(data, capacity * STRIDE);
+        }
+    }
+
+    public CubeBvh(CubeStore cubes) { // Empty until the first update()
+        this.cubes = cubes;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public void update(float time) { // Rebuilds if the scene changed a lot since the last build, otherwise only picks up added cubes
+        this.time = time;
+        long changes = cubes.changeCount() - builtChanges;
+        if (builtChanges < 0 || changes > Math.max(MIN_REBUILD_CHANGES, cubes.size() / 8)) {
+            build();
+        }
+        // Newest first through the store's insertion order, stopping at the first cube that was already there at the build
+        added.count = 0;
+        FloatBuffer data = cubes.buffer();
+        for (long handle = cubes.newestHandle(); handle != CubeStore.NO_CUBE && cubes.addedAt(handle) >= builtChanges;
+                handle = cubes.olderHandle(handle)) {
+            if (added.count == added.handles.length) {
+                added.resize(Math.max(16, added.count * 2));
+            }
+            int i = added.count++;
+            added.handles[i] = handle;
+            data.get(cubes.indexOf(handle) * STRIDE, added.data, i * STRIDE, STRIDE);
+        }
+    }
+
+    public Hit raycast(float originX, float originY, float originZ, float dirX, float dirY, float dirZ, float maxDistance) {
+        // Nearest cube the ray hits within maxDistance, tested against the cube itself rotated to the last update's time, or null
+        float length = (float) Math.sqrt(dirX * dirX + dirY * dirY + dirZ * dirZ);
+        dirX /= length;
+        dirY /= length;
+        dirZ /= length;
+        float invX = 1.0f / dirX, invY = 1.0f / dirY, invZ = 1.0f / dirZ;
+        float best = maxDistance;
+        long bestHandle = CubeStore.NO_CUBE;
+        int top = 0;
+        if (nodeCount > 0 && enter(0, originX, originY, originZ, invX, invY, invZ) < best) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            if (enter(node, originX, originY, originZ, invX, invY, invZ) >= best) {
+                continue; // Something closer was found since this was pushed
+            }
+            if (size[node] <= LEAF_SIZE) {
+                for (int i = first[node]; i < first[node] + size[node]; i++) {
+                    float t = hitCube(tree, i, originX, originY, originZ, dirX, dirY, dirZ);
+                    if (t < best && cubes.contains(tree.handles[i])) {
+                        best = t;
+                        bestHandle = tree.handles[i];
+                    }
+                }
+                continue;
+            }
+            int left = node + 1, right = first[node];
+            float leftEnter = enter(left, originX, originY, originZ, invX, invY, invZ);
+            float rightEnter = enter(right, originX, originY, originZ, invX, invY, invZ);
+            // Nearer child on top so it's searched first and can rule the other one out
+            int near = leftEnter <= rightEnter ? left : right, far = near == left ? right : left;
+            float nearEnter = Math.min(leftEnter, rightEnter), farEnter = Math.max(leftEnter, rightEnter);
+            if (farEnter < best) {
+                stack[top++] = far;
+            }
+            if (nearEnter < best) {
+                stack[top++] = near;
+            }
+        }
+        for (int i = 0; i < added.count; i++) {
+            float t = hitCube(added, i, originX, originY, originZ, dirX, dirY, dirZ);
+            if (t < best && cubes.contains(added.handles[i])) {
+                best = t;
+                bestHandle = added.handles[i];
+            }
+        }
+        return bestHandle == CubeStore.NO_CUBE ? null : new Hit(bestHandle, best);
+    }
+
+    public int sphere(float x, float y, float z, float radius, LongConsumer results) {
+        // Handles of every cube whose centre is within radius of the point, returns how many
+        float radiusSquared = radius * radius;
+        int found = 0;
+        int top = 0;
+        if (nodeCount > 0) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            if (distanceSquared(node, x, y, z) > radiusSquared) {
+                continue;
+            }
+            if (size[node] <= LEAF_SIZE) {
+                for (int i = first[node]; i < first[node] + size[node]; i++) {
+                    found += sphereCube(tree, i, x, y, z, radiusSquared, results);
+                }
+            }
+            else {
+                stack[top++] = first[node];
+                stack[top++] = node + 1;
+            }
+        }
+        for (int i = 0; i < added.count; i++) {
+            found += sphereCube(added, i, x, y, z, radiusSquared, results);
+        }
+        return found;
+    }
+
+    public int box(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, LongConsumer results) {
+        // Handles of every cube whose box (at the last update's rotation) overlaps the given one, returns how many
+        int found = 0;
+        int top = 0;
+        if (nodeCount > 0) {
+            stack[top++] = 0;
+        }
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            if (bounds[b] > maxX || bounds[b + 3] < minX || bounds[b + 1] > maxY || bounds[b + 4] < minY
+                    || bounds[b + 2] > maxZ || bounds[b + 5] < minZ) {
+                continue;
+            }
+            if (size[node] <= LEAF_SIZE) {
+                for (int i = first[node]; i < first[node] + size[node]; i++) {
+                    found += boxCube(tree, i, minX, minY, minZ, maxX, maxY, maxZ, results);
+                }
+            }
+            else {
+                stack[top++] = first[node];
+                stack[top++] = node + 1;
+            }
+        }
+        for (int i = 0; i < added.count; i++) {
+            found += boxCube(added, i, minX, minY, minZ, maxX, maxY, maxZ, results);
+        }
+        return found;
+    }
+
+    private void build() { // Median split on the longest axis of the centres, every live cube goes in
+        int n = cubes.size();
+        float[] source = new float[n * STRIDE]; // Store order, the split sorts order into it and then the copy goes into leaf order
+        cubes.buffer().get(0, source, 0, n * STRIDE);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int maxNodes = Math.max(n, 1); // Leaves hold at least 2 cubes once there's more than one leaf, so at most n - 1 nodes
+        if (size.length < maxNodes) {
+            bounds = new float[maxNodes * 6];
+            first = new int[maxNodes];
+            size = new int[maxNodes];
+        }
+        nodeCount = 0;
+        if (n > 0) {
+            buildNode(source, order, 0, n);
+        }
+        if (tree.handles.length < n) {
+            tree.resize(n);
+        }
+        tree.count = n;
+        for (int i = 0; i < n; i++) {
+            tree.handles[i] = cubes.handle(order[i]);
+            System.arraycopy(source, order[i] * STRIDE, tree.data, i * STRIDE, STRIDE);
+        }
+        if (n > 0) {
+            fit(0);
+        }
+        builtChanges = cubes.changeCount();
+    }
+
+    private int buildNode(float[] source, int[] order, int start, int end) {
+        // Returns the new node's index, its bounds are filled in by fit() once the cubes are in leaf order
+        int node = nodeCount++;
+        size[node] = end - start;
+        if (end - start <= LEAF_SIZE) {
+            first[node] = start;
+            return node;
+        }
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = start; i < end; i++) {
+            int c = order[i] * STRIDE;
+            minX = Math.min(minX, source[c]);
+            maxX = Math.max(maxX, source[c]);
+            minY = Math.min(minY, source[c + 1]);
+            maxY = Math.max(maxY, source[c + 1]);
+            minZ = Math.min(minZ, source[c + 2]);
+            maxZ = Math.max(maxZ, source[c + 2]);
+        }
+        float sizeX = maxX - minX, sizeY = maxY - minY, sizeZ = maxZ - minZ;
+        int axis = sizeX >= sizeY && sizeX >= sizeZ ? 0 : sizeY >= sizeZ ? 1 : 2;
+        int mid = (start + end) >>> 1;
+        select(source, order, start, end, mid, axis);
+        buildNode(source, order, start, mid);
+        first[node] = buildNode(source, order, mid, end);
+        return node;
+    }
+
+    private static void select(float[] source, int[] order, int start, int end, int k, int axis) {
+        // Quickselect, afterwards order[k] is where it would be if sorted on the axis, with smaller ones before it and larger after
+        int lo = start, hi = end - 1;
+        while (hi > lo) {
+            float pivot = source[order[(lo + hi) >>> 1] * STRIDE + axis];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (source[order[i] * STRIDE + axis] < pivot) {
+                    i++;
+                }
+                while (source[order[j] * STRIDE + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i++] = order[j];
+                    order[j--] = swap;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            }
+            else if (k >= i) {
+                lo = i;
+            }
+            else {
+                return; // Between the two halves, everything there equals the pivot
+            }
+        }
+    }
+
+    private void fit(int node) { // Bounds of the node and everything under it, at any rotation, so they hold until the next build
+        if (size[node] > LEAF_SIZE) {
+            int left = node + 1, right = first[node];
+            fit(left);
+            fit(right);
+            union(node, left, right);
+            return;
+        }
+        // Removed cubes are still fitted, their copies are intact, so a leaf's box can only be too big until the next build, never wrong
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        float[] data = tree.data;
+        for (int i = first[node]; i < first[node] + size[node]; i++) {
+            int d = i * STRIDE;
+            float r = data[d + 3] != 0.0f ? SpatialGrid.CUBE_RADIUS : 0.5f; // Static cubes never turn, a tight box is enough
+            minX = Math.min(minX, data[d] - r);
+            maxX = Math.max(maxX, data[d] + r);
+            minY = Math.min(minY, data[d + 1] - r);
+            maxY = Math.max(maxY, data[d + 1] + r);
+            minZ = Math.min(minZ, data[d + 2] - r);
+            maxZ = Math.max(maxZ, data[d + 2] + r);
+        }
+        int b = node * 6;
+        bounds[b] = minX;
+        bounds[b + 1] = minY;
+        bounds[b + 2] = minZ;
+        bounds[b + 3] = maxX;
+        bounds[b + 4] = maxY;
+        bounds[b + 5] = maxZ;
+    }
+
+    private void union(int node, int left, int right) {
+        int b = node * 6, l = left * 6, r = right * 6;
+        for (int i = 0; i < 3; i++) {
+            bounds[b + i] = Math.min(bounds[l + i], bounds[r + i]);
+            bounds[b + 3 + i] = Math.max(bounds[l + 3 + i], bounds[r + 3 + i]);
+        }
+    }
+
+    private float[] fitCube(Cubes set, int i) {
+        // Half size of the axis aligned box around the cube at the current rotation, a unit cube's corners projected onto each axis
+        // Into the extent scratch array, which it returns
+        float[] data = set.data;
+        int d = i * STRIDE;
+        float angle = data[d + 3] * time;
+        if (angle == 0.0f) { // Every static cube, no trig
+            extent[0] = extent[1] = extent[2] = 0.5f;
+            return extent;
+        }
+        float ax = data[d + 4], ay = data[d + 5], az = data[d + 6];
+        float s = (float) Math.sin(angle), c = (float) Math.cos(angle), t = 1.0f - c;
+        // Rows of the same rotation matrix as CubeStore.modelMatrix (Rodrigues)
+        extent[0] = 0.5f * (Math.abs(t * ax * ax + c) + Math.abs(t * ax * ay - s * az) + Math.abs(t * ax * az + s * ay));
+        extent[1] = 0.5f * (Math.abs(t * ax * ay + s * az) + Math.abs(t * ay * ay + c) + Math.abs(t * ay * az - s * ax));
+        extent[2] = 0.5f * (Math.abs(t * ax * az - s * ay) + Math.abs(t * ay * az + s * ax) + Math.abs(t * az * az + c));
+        return extent;
+    }
+
+    private float enter(int node, float ox, float oy, float oz, float invX, float invY, float invZ) {
+        // Distance along the ray where it enters the node's box, infinity if it misses
+        int b = node * 6;
+        float t1 = (bounds[b] - ox) * invX, t2 = (bounds[b + 3] - ox) * invX;
+        float near = Math.min(t1, t2), far = Math.max(t1, t2);
+        t1 = (bounds[b + 1] - oy) * invY;
+        t2 = (bounds[b + 4] - oy) * invY;
+        near = Math.max(near, Math.min(t1, t2));
+        far = Math.min(far, Math.max(t1, t2));
+        t1 = (bounds[b + 2] - oz) * invZ;
+        t2 = (bounds[b + 5] - oz) * invZ;
+        near = Math.max(near, Math.min(t1, t2));
+        far = Math.min(far, Math.max(t1, t2));
+        near = Math.max(near, 0.0f);
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+
+    private float hitCube(Cubes set, int i, float ox, float oy, float oz, float dx, float dy, float dz) {
+        // Exact test, the ray goes into the cube's own space (inverse rotation is the transpose) and is clipped against the unit box
+        float[] data = set.data;
+        int d = i * STRIDE;
+        float rx = ox - data[d], ry = oy - data[d + 1], rz = oz - data[d + 2];
+        float angle = data[d + 3] * time;
+        if (angle != 0.0f) {
+            float ax = data[d + 4], ay = data[d + 5], az = data[d + 6];
+            float s = (float) Math.sin(angle), c = (float) Math.cos(angle), t = 1.0f - c;
+            float m00 = t * ax * ax + c, m01 = t * ax * ay - s * az, m02 = t * ax * az + s * ay;
+            float m10 = t * ax * ay + s * az, m11 = t * ay * ay + c, m12 = t * ay * az - s * ax;
+            float m20 = t * ax * az - s * ay, m21 = t * ay * az + s * ax, m22 = t * az * az + c;
+            float lx = m00 * rx + m10 * ry + m20 * rz, ly = m01 * rx + m11 * ry + m21 * rz, lz = m02 * rx + m12 * ry + m22 * rz;
+            float ldx = m00 * dx + m10 * dy + m20 * dz, ldy = m01 * dx + m11 * dy + m21 * dz, ldz = m02 * dx + m12 * dy + m22 * dz;
+            rx = lx;
+            ry = ly;
+            rz = lz;
+            dx = ldx;
+            dy = ldy;
+            dz = ldz;
+        }
+        float near = 0.0f, far = Float.POSITIVE_INFINITY;
+        if (dx != 0.0f) {
+            float t1 = (-0.5f - rx) / dx, t2 = (0.5f - rx) / dx;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        else if (Math.abs(rx) > 0.5f) { // Parallel to this pair of faces and outside them
+            return Float.POSITIVE_INFINITY;
+        }
+        if (dy != 0.0f) {
+            float t1 = (-0.5f - ry) / dy, t2 = (0.5f - ry) / dy;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        else if (Math.abs(ry) > 0.5f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        if (dz != 0.0f) {
+            float t1 = (-0.5f - rz) / dz, t2 = (0.5f - rz) / dz;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+        }
+        else if (Math.abs(rz) > 0.5f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return near <= far ? near : Float.POSITIVE_INFINITY;
+    }
+
+    private float distanceSquared(int node, float x, float y, float z) { // From a point to the closest point of a node's box
+        int b = node * 6;
+        float dx = Math.max(Math.max(bounds[b] - x, x - bounds[b + 3]), 0.0f);
+        float dy = Math.max(Math.max(bounds[b + 1] - y, y - bounds[b + 4]), 0.0f);
+        float dz = Math.max(Math.max(bounds[b + 2] - z, z - bounds[b + 5]), 0.0f);
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private int sphereCube(Cubes set, int i, float x, float y, float z, float radiusSquared, LongConsumer results) {
+        int d = i * STRIDE;
+        float dx = set.data[d] - x, dy = set.data[d + 1] - y, dz = set.data[d + 2] - z;
+        if (dx * dx + dy * dy + dz * dz > radiusSquared || !cubes.contains(set.handles[i])) {
+            return 0;
+        }
+        results.accept(set.handles[i]);
+        return 1;
+    }
+
+    private int boxCube(Cubes set, int i, float minX, float minY, float minZ, float maxX, float maxY, float maxZ, LongConsumer results) {
+        float[] data = set.data, e = fitCube(set, i); // Only the cubes in leaves the query reached pay for the trig
+        int d = i * STRIDE;
+        if (data[d] - e[0] > maxX || data[d] + e[0] < minX || data[d + 1] - e[1] > maxY
+                || data[d + 1] + e[1] < minY || data[d + 2] - e[2] > maxZ || data[d + 2] + e[2] < minZ
+                || !cubes.contains(set.handles[i])) {
+            return 0;
+        }
+        results.accept(set.handles[i]);
+        return 1;
+    }
+}
@@ -0,0 +1,360 @@
+package demoproject;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+public class CubeStore { // Struct of arrays replacement for ArrayList<Cube>, no object per cube
+    // Floats per cube in the data buffer: x, y, z, rotation speed, then the rotation axis x, y, z and one float of padding
+    // Two vec4s per cube, so it lines up with vertex attributes and std430 buffers without repacking
+    public static final int STRIDE = 8;
+    public static final long NO_CUBE = 0L; // Never a valid handle, generations start at 1
+
+    // Positions, rotation speeds and rotation axes packed together off-heap, the layout is already what a GL buffer wants
+    // The rotation speed is in radians per second and is 0 for cubes that don't rotate, the axis is normalized
+    // Cubes that rotate are kept in front of the ones that don't, so the rotating ones are always the first rotatingCount
+    private FloatBuffer data;
+    private int count = 0;
+    private int rotatingCount = 0;
+    private final SpatialGrid grid; // Kept in sync on every add and remove, null if the scene isn't culled
+    private final StaticBatcher batcher; // Told about every cube that doesn't rotate, null if static cubes aren't batched
+    private final DirtyRanges dirty = new DirtyRanges(); // Indices written since the owner last cleared it
+
+    // Handles, so a cube can be found again after other cubes have moved around in the arrays
+    // A handle is a slot number in the low 32 bits and the slot's generation in the high 32, the generation goes up when the
+    // slot is freed, so a handle to a removed cube never finds whatever gets the slot next
+    private int[] slotOf; // Index to slot
+    private int[] indexOfSlot; // Slot to index, -1 for a free slot
+    private int[] generations; // Per slot
+    private int[] older, newer; // Per slot, a list in the order the cubes were added, so removeLast() can find the newest cube
+    private long[] addedAt; // Per slot, changeCount when its cube was added, so code walking that list knows where to stop
+    private int[] freeSlots; // Stack of slots to reuse
+    private int freeCount = 0;
+    private int slotCount = 0; // Slots handed out so far, never more than the capacity since freed ones get reused first
+    private int newestSlot = -1;
+    private long changeCount = 0; // Adds and removes since the store was made, so indexes built over it can tell how stale they are
+
+    public CubeStore() { // Default constructor
+        this(1024, null);
+    }
+
+    public CubeStore(SpatialGrid grid) { // Overloaded constructor, for a scene that gets frustum culled
+        this(1024, grid);
+    }
+
+    public CubeStore(int initialCapacity, SpatialGrid grid) { // Overloaded constructor, for when the scene size is known up front
+        this(initialCapacity, grid, null);
+    }
+
+    public CubeStore(int initialCapacity, SpatialGrid grid, StaticBatcher batcher) { // Overloaded constructor, static cubes get baked too
+        int capacity = Math.max(initialCapacity, 1);
+        data = BufferUtils.createFloatBuffer(capacity * STRIDE);
+        slotOf = new int[capacity];
+        indexOfSlot = new int[capacity];
+        generations = new int[capacity];
+        older = new int[capacity];
+        newer = new int[capacity];
+        addedAt = new long[capacity];
+        freeSlots = new int[capacity];
+        this.grid = grid;
+        this.batcher = batcher;
+    }
+
+    public SpatialGrid grid() {
+        return grid;
+    }
+
+    public StaticBatcher batcher() {
+        return batcher;
+    }
+
+    public DirtyRanges dirty() { // Only ever added to by the store, whoever uploads the data clears it
+        return dirty;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int rotatingCount() { // Cubes 0 to rotatingCount - 1 rotate, the rest don't
+        return rotatingCount;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long changeCount() {
+        return changeCount;
+    }
+
+    public long newestHandle() { // Handle of the newest cube, NO_CUBE if the store is empty
+        return newestSlot < 0 ? NO_CUBE : handleOf(newestSlot);
+    }
+
+    public long olderHandle(long handle) { // The live cube added before this one, NO_CUBE if it's the oldest, the handle has to be live
+        int older = this.older[(int) handle];
+        return older < 0 ? NO_CUBE : handleOf(older);
+    }
+
+    public long addedAt(long handle) { // changeCount() just before the cube was added, the handle has to be live
+        return addedAt[(int) handle];
+    }
+
+    public long add(float x, float y, float z, boolean shouldRotate) {
+        // Same speed the old Cube.getModelMatrix used for a cube at the end of the list: 20 degrees per second per index
+        // Stored once so that removing another cube doesn't change the speed of this one
+        return add(x, y, z, shouldRotate, (float) Math.toRadians(20.0f * (count + 1)));
+    }
+
+    public long add(float x, float y, float z, boolean shouldRotate, float rotationSpeed) { // Same axis every cube used to share
+        return add(x, y, z, shouldRotate, rotationSpeed, Cube.ROTATION_AXIS.x(), Cube.ROTATION_AXIS.y(), Cube.ROTATION_AXIS.z());
+    }
+
+    public long add(float x, float y, float z, boolean shouldRotate, float rotationSpeed, float axisX, float axisY, float axisZ) {
+        // Returns the new cube's handle, O(1) amortised, the axis has to be normalized already
+        ensureCapacity(count + 1);
+        int index = count;
+        if (shouldRotate) {
+            if (rotatingCount < count) {
+                move(rotatingCount, count); // The first static cube goes to the end to make room
+            }
+            index = rotatingCount++;
+        }
+        count++;
+        int base = index * STRIDE;
+        data.put(base, x).put(base + 1, y).put(base + 2, z).put(base + 3, shouldRotate ? rotationSpeed : 0.0f)
+            .put(base + 4, axisX).put(base + 5, axisY).put(base + 6, axisZ).put(base + 7, 0.0f);
+        dirty.add(index, index + 1);
+        int slot = allocateSlot();
+        addedAt[slot] = changeCount++;
+        slotOf[index] = slot;
+        indexOfSlot[slot] = index;
+        if (grid != null) {
+            grid.insert(index, x, y, z);
+        }
+        if (batcher != null && !shouldRotate) {
+            batcher.add(x, y, z);
+        }
+        return handleOf(slot);
+    }
+
+    public void addAll(FloatBuffer positions, FloatBuffer speeds, FloatBuffer axes, ByteBuffer flags, int n) {
+        // Bulk add from columns, e.g. straight out of a memory mapped SceneFile, grows the store once up front
+        // positions and axes hold 3 floats per cube, speeds and flags 1 each, all read with absolute gets
+        ensureCapacity(count + n);
+        for (int i = 0; i < n; i++) {
+            add(positions.get(i * 3), positions.get(i * 3 + 1), positions.get(i * 3 + 2), SceneFile.rotates(flags.get(i)),
+                speeds.get(i), axes.get(i * 3), axes.get(i * 3 + 1), axes.get(i * 3 + 2));
+        }
+    }
+
+    public long[] addAll(CubeStore batch) {
+        // Copies every cube from another store (usually one with no grid or batcher, filled off the simulation thread)
+        // Returns the new handles in the batch's order
+        ensureCapacity(count + batch.size());
+        long[] handles = new long[batch.size()];
+        for (int i = 0; i < handles.length; i++) {
+            handles[i] = add(batch.x(i), batch.y(i), batch.z(i), batch.rotates(i), batch.rotationSpeed(i),
+                batch.axisX(i), batch.axisY(i), batch.axisZ(i));
+        }
+        return handles;
+    }
+
+    public boolean remove(long handle) { // O(1), false if the cube is already gone
+        int index = indexOf(handle);
+        if (index < 0) {
+            return false;
+        }
+        swapRemove(index);
+        return true;
+    }
+
+    public int removeAll(long[] handles) { // Returns how many were removed, stale handles and repeats are skipped
+        int removed = 0;
+        for (long handle : handles) {
+            if (remove(handle)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public int indexOf(long handle) { // Where the cube is right now, -1 if it was removed, only valid until the next add or remove
+        int slot = (int) handle;
+        if (slot < 0 || slot >= slotCount || generations[slot] != (int) (handle >>> 32)) {
+            return -1;
+        }
+        return indexOfSlot[slot];
+    }
+
+    public boolean contains(long handle) {
+        return indexOf(handle) >= 0;
+    }
+
+    public long handle(int index) {
+        return handleOf(slotOf[index]);
+    }
+
+    public void swapRemove(int index) {
+        // O(1) removal, the hole is filled by moving at most two cubes (the last rotating one, then the last cube) so the arrays stay dense
+        // No other cube changes index, and every handle stays valid
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Cube index " + index + " out of bounds for size " + count);
+        }
+        boolean rotating = index < rotatingCount;
+        if (grid != null) {
+            grid.remove(index);
+        }
+        if (batcher != null && !rotating) {
+            batcher.remove(x(index), y(index), z(index));
+        }
+        freeSlot(slotOf[index]);
+        changeCount++;
+        int hole = index;
+        if (rotating) {
+            int lastRotating = --rotatingCount;
+            if (hole != lastRotating) {
+                move(lastRotating, hole);
+            }
+            hole = lastRotating;
+        }
+        int last = --count;
+        if (hole != last) {
+            move(last, hole);
+        }
+    }
+
+    public void removeLast() { // Deletes the newest cube, what the minus key does
+        if (newestSlot >= 0) {
+            swapRemove(indexOfSlot[newestSlot]);
+        }
+    }
+
+    public void clear() {
+        for (int slot = 0; slot < slotCount; slot++) { // Every slot goes back on the free list with a new generation
+            if (indexOfSlot[slot] >= 0) {
+                bumpGeneration(slot);
+                indexOfSlot[slot] = -1;
+            }
+            freeSlots[slot] = slot;
+        }
+        freeCount = slotCount;
+        newestSlot = -1;
+        changeCount += count;
+        count = 0;
+        rotatingCount = 0;
+        if (grid != null) {
+            grid.clear();
+        }
+        if (batcher != null) {
+            batcher.clear();
+        }
+    }
+
+    public float x(int index) { return data.get(index * STRIDE); } // Accessors for a single cube, no bounds checks past the buffer's own
+    public float y(int index) { return data.get(index * STRIDE + 1); }
+    public float z(int index) { return data.get(index * STRIDE + 2); }
+    public float rotationSpeed(int index) { return data.get(index * STRIDE + 3); }
+    public float axisX(int index) { return data.get(index * STRIDE + 4); }
+    public float axisY(int index) { return data.get(index * STRIDE + 5); }
+    public float axisZ(int index) { return data.get(index * STRIDE + 6); }
+    public boolean rotates(int index) { return index < rotatingCount; }
+
+    public Matrix4f modelMatrix(int index, float time, Matrix4f dest) {
+        return modelMatrix(data, index, time, dest);
+    }
+
+    public static Matrix4f modelMatrix(FloatBuffer data, int index, float time, Matrix4f dest) {
+        // Translate to the cube's position and then rotate around its axis, same result as Cube.getModelMatrix
+        // Works on anything with this class's layout, e.g. the copies in a SceneSnapshot
+        int base = index * STRIDE;
+        return dest.translation(data.get(base), data.get(base + 1), data.get(base + 2))
+            .rotate(data.get(base + 3) * time, data.get(base + 4), data.get(base + 5), data.get(base + 6));
+    }
+
+    public FloatBuffer data() {
+        // View of the live cubes, position 0 and limit at the end of the last cube, can go straight into glBufferData
+        return data.duplicate().position(0).limit(count * STRIDE);
+    }
+
+    public FloatBuffer buffer() { // The backing buffer itself, for absolute reads, replaced when the store grows
+        return data;
+    }
+
+    private void move(int from, int to) { // Moves a cube to a free index, keeping the grid and its handle pointing at it
+        int fromBase = from * STRIDE, toBase = to * STRIDE;
+        for (int i = 0; i < STRIDE; i++) {
+            data.put(toBase + i, data.get(fromBase + i));
+        }
+        dirty.add(to, to + 1);
+        int slot = slotOf[from];
+        slotOf[to] = slot;
+        indexOfSlot[slot] = to;
+        if (grid != null) {
+            grid.move(from, to);
+        }
+    }
+
+    private int allocateSlot() { // Also makes the slot the newest one
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        }
+        else {
+            slot = slotCount++;
+            generations[slot] = 1;
+        }
+        older[slot] = newestSlot;
+        newer[slot] = -1;
+        if (newestSlot >= 0) {
+            newer[newestSlot] = slot;
+        }
+        newestSlot = slot;
+        return slot;
+    }
+
+    private void freeSlot(int slot) {
+        if (older[slot] >= 0) { // Unlink it from the order of adds
+            newer[older[slot]] = newer[slot];
+        }
+        if (newer[slot] >= 0) {
+            older[newer[slot]] = older[slot];
+        }
+        else {
+            newestSlot = older[slot];
+        }
+        bumpGeneration(slot);
+        indexOfSlot[slot] = -1;
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void bumpGeneration(int slot) { // Wraps after 4 billion reuses of one slot, skipping 0 so NO_CUBE stays invalid
+        int next = generations[slot] + 1;
+        generations[slot] = next == 0 ? 1 : next;
+    }
+
+    private long handleOf(int slot) {
+        return (long) generations[slot] << 32 | slot;
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= slotOf.length) {
+            return;
+        }
+        int capacity = Math.max(needed, slotOf.length * 2); // Double so adds stay O(1) amortised
+        FloatBuffer grown = BufferUtils.createFloatBuffer(capacity * STRIDE);
+        grown.put(data.duplicate().position(0).limit(count * STRIDE)).clear(); // Copy the live cubes over
+        data = grown;
+        slotOf = Arrays.copyOf(slotOf, capacity);
+        indexOfSlot = Arrays.copyOf(indexOfSlot, capacity);
+        generations = Arrays.copyOf(generations, capacity);
+        older = Arrays.copyOf(older, capacity);
+        newer = Arrays.copyOf(newer, capacity);
+        addedAt = Arrays.copyOf(addedAt, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+}
@@ -0,0 +1,95 @@
+package demoproject;
+
+import java.util.Arrays;
+
+public class DirtyRanges { // Spans of cube indices that were written to, so only those parts of a GPU buffer get uploaded again
+    // Each span is packed into a long, start in the high 32 bits and end (exclusive) in the low 32, so sorting the longs sorts by start
+    // Appending right next to the last span just extends it, which covers the common case of adding lots of cubes in a row
+    private static final int COMPACT_AT = 1024; // Past this many spans, add() merges the overlapping ones before growing the array
+
+    private long[] spans = new long[64];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int start(int span) { return (int) (spans[span] >>> 32); }
+    public int end(int span) { return (int) spans[span]; }
+
+    public int total() { // Indices covered by every span, only exact after coalesce() since spans can overlap before that
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += end(i) - start(i);
+        }
+        return total;
+    }
+
+    public void add(int start, int end) { // Marks [start, end) as dirty
+        if (start >= end) {
+            return;
+        }
+        if (size > 0) {
+            int lastStart = start(size - 1), lastEnd = end(size - 1);
+            if (start <= lastEnd && end >= lastStart) { // Touches or overlaps the last span, grow it instead of adding one
+                spans[size - 1] = pack(Math.min(start, lastStart), Math.max(end, lastEnd));
+                return;
+            }
+        }
+        if (size == spans.length) {
+            if (size >= COMPACT_AT) {
+                coalesce(0); // Random removals land all over the place, but they often hit the same spans again
+            }
+            if (size > spans.length / 2) {
+                spans = Arrays.copyOf(spans, spans.length * 2);
+            }
+        }
+        spans[size++] = pack(start, end);
+    }
+
+    public void add(DirtyRanges other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.start(i), other.end(i));
+        }
+    }
+
+    public void coalesce(int maxGap) {
+        // Sorts the spans and merges any that overlap or are at most maxGap indices apart
+        // Re-uploading a small gap of unchanged data is cheaper than another glBufferSubData call, so callers pass a gap of a few dozen cubes
+        Arrays.sort(spans, 0, size);
+        int merged = 0;
+        for (int i = 0; i < size; i++) {
+            int start = start(i), end = end(i);
+            if (merged > 0 && start <= end(merged - 1) + maxGap) {
+                spans[merged - 1] = pack(start(merged - 1), Math.max(end, end(merged - 1)));
+            }
+            else {
+                spans[merged++] = pack(start, end);
+            }
+        }
+        size = merged;
+    }
+
+    public void clip(int limit) { // Drops everything at or past limit, e.g. indices that were written and then removed again
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int start = start(i), end = Math.min(end(i), limit);
+            if (start < end) {
+                spans[kept++] = pack(start, end);
+            }
+        }
+        size = kept;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private static long pack(int start, int end) {
+        return (long) start << 32 | (end & 0xFFFFFFFFL);
+    }
+}
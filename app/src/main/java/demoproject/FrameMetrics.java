@@ -0,0 +1,170 @@
+package demoproject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.lwjgl.opengl.GL;
+import static org.lwjgl.opengl.GL33.*;
+
+public class FrameMetrics { // Per stage frame timings, every method returns straight away when metrics are off
+    public enum Stage { // Where a frame's time goes, in the order they happen
+        INPUT, SCENE, CULL, TRANSFORM, UPLOAD,
+        STALL, // Time the stream buffer spent waiting for the GPU to finish with a region, part of UPLOAD
+        DRAW,
+        BATCHES, // Uploading rebuilt chunk meshes and drawing the baked static cubes
+        SWAP, FRAME, GPU,
+        SIMULATION, // A whole simulation tick, SCENE and CULL are recorded by the simulation thread too
+        SPATIAL, // Updating the simulation's CubeBvh and answering queries, only on ticks that had a query
+        STARTUP // Launch to the end of the first frame, recorded once
+    }
+
+    private static final int GPU_QUERIES = 4; // Timer queries in flight, results are read a few frames late so we never stall on them
+
+    private final boolean enabled;
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final long[] starts = new long[Stage.values().length]; // System.nanoTime at begin(), per stage
+
+    private final int[] gpuQueries = new int[GPU_QUERIES];
+    private int gpuFrame = 0; // Frames that had a GPU query, the ring index is this modulo GPU_QUERIES
+    private boolean gpuTiming = false;
+
+    private final BufferedWriter csv; // Periodic dump, null if not asked for
+    private final long dumpIntervalNanos;
+    private long lastDump = System.nanoTime();
+
+    public FrameMetrics(boolean enabled, Path csvFile, double dumpIntervalSeconds) {
+        this.enabled = enabled;
+        this.dumpIntervalNanos = (long) (dumpIntervalSeconds * 1e9);
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+        if (enabled && csvFile != null) {
+            try {
+                csv = Files.newBufferedWriter(csvFile);
+                csv.write("time_s,stage,count,mean_us,p50_us,p90_us,p99_us,max_us\n");
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Can't write metrics to " + csvFile, e);
+            }
+        }
+        else {
+            csv = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void initGpuTiming() { // Needs a current GL context, timer queries are core in 3.3 but check anyway
+        if (enabled && (GL.getCapabilities().OpenGL33 || GL.getCapabilities().GL_ARB_timer_query)) {
+            glGenQueries(gpuQueries);
+            gpuTiming = true;
+        }
+    }
+
+    public void begin(Stage stage) {
+        if (enabled) {
+            starts[stage.ordinal()] = System.nanoTime();
+        }
+    }
+
+    public void end(Stage stage) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(System.nanoTime() - starts[stage.ordinal()]);
+        }
+    }
+
+    public void record(Stage stage, long nanos) { // For timings measured somewhere else, e.g. another thread
+        if (enabled) {
+            histograms[stage.ordinal()].record(nanos);
+        }
+    }
+
+    public void beginGpu() { // Wraps the GL calls of a frame, only one of these can be open at a time
+        if (!gpuTiming) {
+            return;
+        }
+        if (gpuFrame >= GPU_QUERIES) { // The query we're about to reuse was issued GPU_QUERIES frames ago, collect it first
+            int oldest = gpuQueries[gpuFrame % GPU_QUERIES];
+            if (glGetQueryObjecti(oldest, GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) { // Skip it rather than wait if the GPU is that far behind
+                histograms[Stage.GPU.ordinal()].record(glGetQueryObjecti64(oldest, GL_QUERY_RESULT));
+            }
+        }
+        glBeginQuery(GL_TIME_ELAPSED, gpuQueries[gpuFrame % GPU_QUERIES]);
+    }
+
+    public void endGpu() {
+        if (gpuTiming) {
+            glEndQuery(GL_TIME_ELAPSED);
+            gpuFrame++;
+        }
+    }
+
+    public Histogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public String summary() { // One line readout for the window title
+        if (!enabled) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        Histogram frame = histograms[Stage.FRAME.ordinal()];
+        builder.append(String.format("frame p50 %.2f ms p99 %.2f ms", frame.percentile(0.5) / 1e6, frame.percentile(0.99) / 1e6));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = histograms[stage.ordinal()];
+            if (stage != Stage.FRAME && histogram.count() > 0) {
+                builder.append(String.format(", %s %.2f", stage.name().toLowerCase(), histogram.mean() / 1e6));
+            }
+        }
+        return builder.toString();
+    }
+
+    public boolean intervalElapsed() { // True once per dump interval, the caller reads summary() and then calls endInterval()
+        return enabled && System.nanoTime() - lastDump >= dumpIntervalNanos;
+    }
+
+    public void endInterval() { // Writes the interval to the CSV (if any) and starts a fresh one
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (csv != null) {
+            try {
+                for (Stage stage : Stage.values()) {
+                    Histogram h = histograms[stage.ordinal()];
+                    if (h.count() > 0) {
+                        csv.write(String.format("%.3f,%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f%n", now / 1e9, stage.name().toLowerCase(), h.count(),
+                            h.mean() / 1e3, h.percentile(0.5) / 1e3, h.percentile(0.9) / 1e3, h.percentile(0.99) / 1e3, h.max() / 1e3));
+                    }
+                }
+                csv.flush(); // So the file is useful even if the app is killed
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        lastDump = now;
+    }
+
+    public void cleanup() {
+        if (gpuTiming) {
+            glDeleteQueries(gpuQueries);
+        }
+        if (csv != null) {
+            try {
+                csv.close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.joml.Matrix4fc;
+import org.joml.Vector4f;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import static org.lwjgl.opengl.GL43.*;
+
+public class GpuCuller { // Frustum culls the GPU animated cubes in a compute shader and draws the survivors with one indirect draw
+    // The cull reads the same buffer the GPU animated mode draws from, writes the cubes in view to a compacted buffer and their count
+    // into an indirect draw command, then glDrawElementsIndirect draws them, nothing comes back to the CPU at any point
+    private static final int WORK_GROUP_SIZE = 256; // Matches local_size_x in cull.comp
+    private static final int COMMAND_BYTES = 5 * Integer.BYTES; // DrawElementsIndirectCommand
+
+    private final Shader cullShader;
+    private final int planesUniform, cubeCountUniform;
+    private final int visibleVbo; // Cubes that passed, CubeStore layout, so gpu_animated.vert draws them as they are
+    private int visibleCapacity = 0; // Cubes visibleVbo has room for
+    private final int commandBuffer; // Indirect draw command, the compute shader fills in its instance count
+    private final int vao; // The cube mesh, with the per-instance data coming from visibleVbo
+
+    private final Vector4f plane = new Vector4f(); // Scratch, so culling doesn't allocate
+    private final FloatBuffer planes = BufferUtils.createFloatBuffer(6 * 4);
+    private final IntBuffer command = BufferUtils.createIntBuffer(5); // Index count 36 and instance count 0, uploaded every frame to reset it
+
+    public static boolean isSupported() { // Compute shaders, storage buffers and indirect draws, all core in 4.3
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.OpenGL43 || (caps.GL_ARB_compute_shader && caps.GL_ARB_shader_storage_buffer_object && caps.GL_ARB_draw_indirect);
+    }
+
+    public GpuCuller(Shader cullShader, int meshVbo, int meshEbo) { // Needs isSupported(), the shader from ShaderLibrary.loadCompute
+        this.cullShader = cullShader;
+        planesUniform = cullShader.uniform("planes");
+        cubeCountUniform = cullShader.uniform("cubeCount");
+        command.put(0, Cube.indices.length);
+
+        commandBuffer = glGenBuffers();
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, COMMAND_BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+
+        visibleVbo = glGenBuffers();
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, meshVbo);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, meshEbo);
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
+        glEnableVertexAttribArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, visibleVbo); // Same two vec4s per cube as the GPU animated VAO
+        glVertexAttribPointer(1, 4, GL_FLOAT, false, CubeStore.STRIDE * Float.BYTES, 0);
+        glVertexAttribPointer(2, 4, GL_FLOAT, false, CubeStore.STRIDE * Float.BYTES, 4 * Float.BYTES);
+        for (int location = 1; location <= 2; location++) {
+            glEnableVertexAttribArray(location);
+            glVertexAttribDivisor(location, 1);
+        }
+        glBindVertexArray(0);
+    }
+
+    public void cull(Matrix4fc viewProj, int cubeDataVbo, int cubeCount) {
+        // Dispatches the cull over the first cubeCount cubes of cubeDataVbo, draw() afterwards draws whatever passed
+        if (cubeCount > visibleCapacity) { // Worst case everything is visible, the old contents don't matter
+            visibleCapacity = Math.max(cubeCount, visibleCapacity * 2);
+            glBindBuffer(GL_ARRAY_BUFFER, visibleVbo);
+            glBufferData(GL_ARRAY_BUFFER, (long) visibleCapacity * CubeStore.STRIDE * Float.BYTES, GL_DYNAMIC_COPY);
+        }
+        for (int p = 0; p < 6; p++) { // Same plane order as JOML's PLANE_NX to PLANE_PZ
+            viewProj.frustumPlane(p, plane);
+            plane.get(p * 4, planes);
+        }
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glBufferSubData(GL_DRAW_INDIRECT_BUFFER, 0, command); // Reset the instance count, a 20 byte write, not a read
+
+        cullShader.use();
+        cullShader.setUniform4fv(planesUniform, planes);
+        cullShader.setUniform1i(cubeCountUniform, cubeCount);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, cubeDataVbo); // Bound every frame, the buffer is replaced when it grows
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, visibleVbo);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 2, commandBuffer);
+        glDispatchCompute((cubeCount + WORK_GROUP_SIZE - 1) / WORK_GROUP_SIZE, 1, 1);
+        // The draw reads the command and the compacted cubes, both written by the dispatch
+        glMemoryBarrier(GL_COMMAND_BARRIER_BIT | GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT);
+    }
+
+    public void draw() { // The caller has the GPU animated shader bound with its uniforms set
+        glBindVertexArray(vao);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    public void cleanup() {
+        glDeleteVertexArrays(vao);
+        glDeleteBuffers(visibleVbo);
+        glDeleteBuffers(commandBuffer);
+        cullShader.cleanup();
+    }
+}
@@ -0,0 +1,174 @@
+package demoproject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class Options { // Command line flags, everything has a default so running with no arguments behaves like before
+    public static final String DEFAULT_CONFIG = "demoproject.properties"; // Read from the working directory if it's there
+    public static final long HEADLESS_SEED = 42; // Headless runs without --seed use this, so two runs draw the same scene
+
+    public static final String USAGE = """
+        Usage: java -jar app-all.jar [options]
+          --config <file>           Read options from a properties file first (default demoproject.properties if it exists),
+                                    one per line without the dashes, e.g. cubes=100000, flags are set with headless=true
+          --title <text>            Window title (default DemoProject)
+          --ask-title               Ask for the window title on the command line before starting, like it used to
+          --width <pixels>          Window or framebuffer width (default 1600)
+          --height <pixels>         Window or framebuffer height (default 900)
+          --cubes <count>           Number of cubes in the starting scene (default 10)
+          --seed <number>           Random seed for the scene, random if not set (42 when headless)
+          --scene <file>            Load the starting scene from a scene file instead of generating one, F5 saves back to it
+          --save-scene <file>       Save the starting scene to a scene file, e.g. to make a big one once with --cubes
+          --headless                Render offscreen with vsync off, print frame times and exit
+          --frames <count>          Frames to render in headless mode (default 600)
+          --tick-rate <hz>          Simulation updates per second (default 60)
+          --batching                Bake cubes that don't rotate into chunk meshes instead of drawing them like the others
+          --render-mode <mode>      instanced, gpu-animated, gpu-culled or per-cube (default instanced), the I key cycles them
+          --shader-dir <dir>        Read shaders from here when the file exists, and reload them when they change
+          --no-shader-cache         Always compile shaders instead of using the cached program binaries
+          --metrics                 Time each stage of the frame, shown in the title bar
+          --metrics-out <file>      Also write the stage timings to a CSV file, implies --metrics
+          --metrics-interval <s>    Seconds per CSV row (default 1)
+          --help                    Print this and exit
+        """;
+
+    public String title = null; // Null means the default title
+    public boolean askTitle = false;
+    public String config = null;
+    public int width = 1600;
+    public int height = 900;
+    public int cubes = 10; // The cube at the origin plus 9 random ones
+    public long seed = System.nanoTime(); // HEADLESS_SEED instead when headless and --seed isn't given
+    public String scene = null; // Scene file to load, null means generate one from --cubes and --seed
+    public String saveScene = null;
+    public boolean headless = false;
+    public int frames = 600;
+    public int tickRate = 60;
+    public RenderMode renderMode = RenderMode.INSTANCED;
+    public boolean staticBatching = false; // Opt in, one draw per chunk is still slower than one instanced draw for every cube
+    public String shaderDir = null; // Null means only the shaders bundled in the jar, and no hot reload
+    public boolean shaderCache = true;
+    public boolean metrics = false;
+    public String metricsOut = null;
+    public double metricsInterval = 1.0;
+    public boolean help = false;
+
+    public static Options parse(String[] args) { // Throws IllegalArgumentException with a readable message on bad input
+        // The config file goes first, so anything on the command line overrides it
+        String configFile = configFile(args);
+        List<String> all = new ArrayList<>();
+        if (configFile != null) {
+            all.addAll(configArgs(Path.of(configFile)));
+        }
+        all.addAll(List.of(args));
+        return parseArgs(all.toArray(new String[0]));
+    }
+
+    private static Options parseArgs(String[] args) {
+        Options options = new Options();
+        boolean seeded = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--config" -> options.config = value(args, ++i); // Already read by parse()
+                case "--title" -> options.title = value(args, ++i);
+                case "--ask-title" -> options.askTitle = true;
+                case "--width" -> options.width = positive(args, ++i);
+                case "--height" -> options.height = positive(args, ++i);
+                case "--cubes" -> options.cubes = positive(args, ++i);
+                case "--seed" -> {
+                    options.seed = Long.parseLong(value(args, ++i));
+                    seeded = true;
+                }
+                case "--scene" -> options.scene = value(args, ++i);
+                case "--save-scene" -> options.saveScene = value(args, ++i);
+                case "--headless" -> options.headless = true;
+                case "--frames" -> options.frames = positive(args, ++i);
+                case "--tick-rate" -> options.tickRate = positive(args, ++i);
+                case "--batching" -> options.staticBatching = true;
+                case "--shader-dir" -> options.shaderDir = value(args, ++i);
+                case "--no-shader-cache" -> options.shaderCache = false;
+                case "--render-mode" -> options.renderMode = renderMode(value(args, ++i));
+                case "--metrics" -> options.metrics = true;
+                case "--metrics-out" -> {
+                    options.metricsOut = value(args, ++i);
+                    options.metrics = true;
+                }
+                case "--metrics-interval" -> options.metricsInterval = positiveDouble(args, ++i);
+                case "--help", "-h" -> options.help = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (options.headless && !seeded) {
+            options.seed = HEADLESS_SEED;
+        }
+        return options;
+    }
+
+    private static String configFile(String[] args) { // --config if it was passed, else the default one if it exists
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--config")) {
+                return value(args, i + 1);
+            }
+        }
+        return Files.isRegularFile(Path.of(DEFAULT_CONFIG)) ? DEFAULT_CONFIG : null;
+    }
+
+    private static List<String> configArgs(Path file) { // Turns key=value lines into the same arguments the command line takes
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Can't read config file " + file + ": " + e.getMessage());
+        }
+        List<String> args = new ArrayList<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (value.equals("true")) { // Flags
+                args.add("--" + key);
+            }
+            else if (!value.equals("false")) {
+                args.add("--" + key);
+                args.add(value);
+            }
+        }
+        return args;
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static RenderMode renderMode(String name) { // gpu-animated -> GPU_ANIMATED
+        try {
+            return RenderMode.valueOf(name.toUpperCase().replace('-', '_'));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown render mode: " + name);
+        }
+    }
+
+    private static int positive(String[] args, int i) {
+        int value = Integer.parseInt(value(args, i));
+        if (value <= 0) {
+            throw new IllegalArgumentException(args[i - 1] + " must be greater than 0");
+        }
+        return value;
+    }
+
+    private static double positiveDouble(String[] args, int i) { // NaN and infinity fail too, neither makes sense as a duration
+        double value = Double.parseDouble(value(args, i));
+        if (!(value > 0.0) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(args[i - 1] + " must be a number greater than 0");
+        }
+        return value;
+    }
+}
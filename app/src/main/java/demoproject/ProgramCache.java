@@ -0,0 +1,131 @@
+package demoproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.ARBGetProgramBinary;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import static org.lwjgl.opengl.GL20.*;
+
+public class ProgramCache { // Linked shader programs saved to disk with glGetProgramBinary, so warm starts skip compiling
+    // One file per program, named after a hash of both sources and the driver, a driver update just means new files
+    // Each file is the binary format as a little endian int followed by the binary itself
+    // Everything here is best effort, if anything goes wrong the caller compiles from source like it would without a cache
+    private final Path directory;
+    private final String driver; // Vendor, renderer and version strings, binaries are only valid on the exact same driver
+    private final boolean supported;
+
+    public ProgramCache(Path directory) { // Needs a current GL context
+        this.directory = directory;
+        this.driver = glGetString(GL_VENDOR) + "|" + glGetString(GL_RENDERER) + "|" + glGetString(GL_VERSION);
+        GLCapabilities caps = GL.getCapabilities();
+        // Core in 4.1, and drivers are allowed to support no binary formats at all, in which case there's nothing to cache
+        this.supported = (caps.OpenGL41 || caps.GL_ARB_get_program_binary)
+            && glGetInteger(ARBGetProgramBinary.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+    }
+
+    public static Path defaultDirectory() { // Per user, so every checkout and jar shares one cache
+        return Path.of(System.getProperty("user.home"), ".cache", "demoproject", "shaders");
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    public String key(String vertexShaderCode, String fragmentShaderCode) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(vertexShaderCode.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0); // Separators so moving text from one source to the other changes the key
+            digest.update(fragmentShaderCode.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(driver.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing from this JVM", e); // Every JVM has to ship it
+        }
+    }
+
+    public int load(String key) { // Returns a linked program, or 0 if it isn't cached or the driver rejected the binary
+        if (!supported) {
+            return 0;
+        }
+        Path file = directory.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer data = BufferUtils.createByteBuffer((int) channel.size()); // Direct, glProgramBinary reads it in place
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            data.flip().order(ByteOrder.LITTLE_ENDIAN);
+            if (data.remaining() <= Integer.BYTES) {
+                return 0;
+            }
+            int format = data.getInt();
+            int program = glCreateProgram();
+            ARBGetProgramBinary.glProgramBinary(program, format, data.slice());
+            if (glGetProgrami(program, GL_LINK_STATUS) == GL_FALSE) { // Stale or corrupt, the caller recompiles and overwrites it
+                glDeleteProgram(program);
+                return 0;
+            }
+            return program;
+        }
+        catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public void store(String key, int program) { // The program has to be linked with the retrievable hint, see Shader.link
+        if (!supported) {
+            return;
+        }
+        int length = glGetProgrami(program, ARBGetProgramBinary.GL_PROGRAM_BINARY_LENGTH);
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = BufferUtils.createByteBuffer(length);
+        int[] written = new int[1];
+        int[] format = new int[1];
+        ARBGetProgramBinary.glGetProgramBinary(program, written, format, binary);
+        binary.limit(written[0]);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, format[0]);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            // Written to a temporary file and moved into place, so a crash or a second instance never leaves half a binary behind
+            temporary = Files.createTempFile(directory, key, ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer[] buffers = { header, binary };
+                while (header.hasRemaining() || binary.hasRemaining()) { // A write can stop short, keep going until both are out
+                    channel.write(buffers);
+                }
+            }
+            Files.move(temporary, directory.resolve(key + ".bin"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            try { // Don't leave a half written binary lying around in the cache directory
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            catch (IOException ignored) {
+            }
+            System.out.println("Couldn't write the shader cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package demoproject;
+
+public enum RenderMode { // Ways of getting the cubes on screen, the I key cycles through them to compare frame times
+    INSTANCED, // Matrices computed on the CPU for the visible cubes, one instanced draw call
+    GPU_ANIMATED, // Static per cube data uploaded once, the vertex shader does the rotation from a time uniform, no culling
+    GPU_CULLED, // GPU animated, but a compute shader frustum culls first and the draw is indirect, GL 4.3, else same as GPU_ANIMATED
+    PER_CUBE; // The original renderer, one uniform upload and draw call per visible cube
+
+    public RenderMode next() {
+        return values()[(ordinal() + 1) % values().length];
+    }
+}
@@ -0,0 +1,21 @@
+package demoproject;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public sealed interface SceneCommand { // Scene changes requested by input, queued up and applied on the simulation thread
+    SceneCommand ADD_RANDOM_CUBE = new AddRandomCubes(1); // Shared instances for the commands that don't carry anything else
+    SceneCommand REMOVE_LAST_CUBE = new RemoveLastCubes(1);
+
+    record AddRandomCubes(int count) implements SceneCommand {} // The + key, cubes at random positions that may or may not rotate
+    record RemoveLastCubes(int count) implements SceneCommand {} // The - key, deletes the newest cubes
+    record SaveScene(Path path) implements SceneCommand {} // The F5 key, writes the whole scene to a SceneFile
+
+    // Adds every cube in batch, a CubeStore with no grid or batcher that isn't touched again once it's queued
+    // The new cubes' handles, in the batch's order, complete handles on the simulation thread, it can be null if nobody needs them
+    record AddCubes(CubeStore batch, CompletableFuture<long[]> handles) implements SceneCommand {}
+    record RemoveCubes(long[] handles) implements SceneCommand {} // By handle, ones that are already gone are skipped
+    // Runs query against the scene's CubeBvh once this tick's changes are in, see Simulation.query
+    record Query<T>(Function<CubeBvh, T> query, CompletableFuture<T> result) implements SceneCommand {}
+}
@@ -0,0 +1,154 @@
+package demoproject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public class SceneFile { // Binary scene files, so big scenes load in one pass instead of being generated every launch
+    // Layout, little endian, every column starts on a 4 byte boundary:
+    //   header    magic "DPSC", version, cube count, reserved (4 ints, 16 bytes)
+    //   positions x, y, z per cube (3 floats each)
+    //   speeds    rotation speed in radians per second per cube (1 float each)
+    //   axes      normalized rotation axis x, y, z per cube (3 floats each)
+    //   flags     one byte per cube, bit 0 set if the cube rotates, padded to a multiple of 4
+    // Columns rather than one record per cube, so a later version can add a column without touching the others
+    public static final int MAGIC = 0x43535044; // "DPSC" read as a little endian int
+    public static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int FLAG_ROTATES = 1;
+    private static final int WRITE_CHUNK_BYTES = 1 << 16; // save() fills this much and writes it out, instead of one write per cube
+    private static final int MAX_CUBES = (Integer.MAX_VALUE - HEADER_BYTES) / 29; // 29 bytes per cube, keeps the file under 2 GB
+
+    public static int load(Path path, CubeStore cubes) {
+        // Appends every cube in the file to the store, returns how many there were
+        // The file is memory mapped and the columns are read straight out of the mapping, nothing is built per cube
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IllegalArgumentException(path + " is too small to be a scene file");
+            }
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            if (file.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException(path + " is not a scene file");
+            }
+            int version = file.getInt(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException(path + " is scene format version " + version + ", only version " + VERSION + " is supported");
+            }
+            int count = file.getInt(8);
+            if (count < 0 || count > MAX_CUBES) {
+                throw new IllegalArgumentException(path + " has a bad cube count: " + count);
+            }
+            if (size < fileSize(count)) {
+                throw new IllegalArgumentException(path + " is truncated, expected " + fileSize(count) + " bytes for " + count + " cubes");
+            }
+            FloatBuffer positions = column(file, positionsOffset(), count * 12).asFloatBuffer();
+            FloatBuffer speeds = column(file, speedsOffset(count), count * 4).asFloatBuffer();
+            FloatBuffer axes = column(file, axesOffset(count), count * 12).asFloatBuffer();
+            ByteBuffer flags = column(file, flagsOffset(count), count);
+            cubes.addAll(positions, speeds, axes, flags, count);
+            return count;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Can't read scene " + path, e);
+        }
+    }
+
+    public static void save(Path path, CubeStore cubes) { // Writes the whole store, only from the thread that owns it
+        // Written to a temporary file next to it and moved into place, so a crash mid save never leaves half a scene behind
+        // Not mapped, a mapping stays alive until it's garbage collected and Windows won't move or replace a mapped file
+        int count = cubes.size();
+        if (count > MAX_CUBES) {
+            throw new IllegalArgumentException("Scenes over " + MAX_CUBES + " cubes don't fit in one mapping");
+        }
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(WRITE_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                chunk.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(0);
+                for (int i = 0; i < count; i++) { // Same columns as load() reads, one after the other
+                    room(channel, chunk, 12).putFloat(cubes.x(i)).putFloat(cubes.y(i)).putFloat(cubes.z(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    room(channel, chunk, 4).putFloat(cubes.rotationSpeed(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    room(channel, chunk, 12).putFloat(cubes.axisX(i)).putFloat(cubes.axisY(i)).putFloat(cubes.axisZ(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    room(channel, chunk, 1).put((byte) (cubes.rotates(i) ? FLAG_ROTATES : 0));
+                }
+                for (long i = flagsOffset(count) + count; i < fileSize(count); i++) {
+                    room(channel, chunk, 1).put((byte) 0);
+                }
+                write(channel, chunk);
+                channel.force(false); // On disk before the move makes it the scene
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            try { // The old scene is still there untouched, don't leave the half written one lying around next to it
+                if (temporary != null) {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+            catch (IOException ignored) {
+            }
+            throw new UncheckedIOException("Can't write scene " + path, e);
+        }
+    }
+
+    public static boolean rotates(byte flags) {
+        return (flags & FLAG_ROTATES) != 0;
+    }
+
+    private static ByteBuffer room(FileChannel channel, ByteBuffer chunk, int bytes) throws IOException {
+        // The chunk with at least this many bytes free, writing out what's in it first if it's too full
+        if (chunk.remaining() < bytes) {
+            write(channel, chunk);
+        }
+        return chunk;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer chunk) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    private static ByteBuffer column(ByteBuffer file, long offset, int bytes) { // View of one column, slices don't keep the byte order
+        return file.slice((int) offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long positionsOffset() {
+        return HEADER_BYTES;
+    }
+
+    private static long speedsOffset(int count) {
+        return positionsOffset() + 12L * count;
+    }
+
+    private static long axesOffset(int count) {
+        return speedsOffset(count) + 4L * count;
+    }
+
+    private static long flagsOffset(int count) {
+        return axesOffset(count) + 12L * count;
+    }
+
+    private static long fileSize(int count) {
+        return flagsOffset(count) + (count + 3) / 4 * 4L;
+    }
+}
@@ -0,0 +1,20 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+
+public class SceneSnapshot { // What the render thread gets from one simulation tick, never changed after it's published
+    public FloatBuffer visible = BufferUtils.createFloatBuffer(1024 * CubeStore.STRIDE); // Same layout as CubeStore, visible cubes only
+    public int visibleCount = 0;
+    public int culledCount = 0;
+    public int totalCount = 0;
+    public int batchedCount = 0; // Static cubes drawn from baked chunks instead, not in visible
+    public long tick = 0; // Simulation tick this was taken at
+
+    void ensureCapacity(int cubes) { // Simulation thread only, before filling the snapshot in
+        if (visible.capacity() < cubes * CubeStore.STRIDE) {
+            visible = BufferUtils.createFloatBuffer(Math.max(cubes, visible.capacity() / CubeStore.STRIDE * 2) * CubeStore.STRIDE);
+        }
+    }
+}
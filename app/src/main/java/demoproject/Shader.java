@@ -1,31 +1,161 @@
 package demoproject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.lwjgl.opengl.ARBGetProgramBinary;
+import org.lwjgl.opengl.GL43;
 import static org.lwjgl.opengl.GL20.*;
 
 public class Shader {
-    private final int programId; // Program ID for the shader program, memory address of the program object
-    
-    public Shader() { // Default unchanged code
-        this(vertexShaderCode, fragmentShaderCode); // Ooo cool constructor chaining
+    // Shader sources are in src/main/resources/shaders, or a --shader-dir, see ShaderLibrary
+    public static final String CUBE_VERTEX = "cube.vert"; // Model matrix as a uniform, one draw per cube
+    public static final String INSTANCED_VERTEX = "instanced.vert"; // Model matrix as a per-instance attribute
+    public static final String GPU_ANIMATED_VERTEX = "gpu_animated.vert"; // Rotation done in the shader from a time uniform
+    public static final String FRAGMENT = "cube.frag";
+    public static final String CULL_COMPUTE = "cull.comp"; // Frustum culls every cube on the GPU, needs GL 4.3, see GpuCuller
+
+    private int programId; // Program ID for the shader program, memory address of the program object, replaced on hot reload
+    private final String vertexName; // Source file names, null if the shader was made straight from source code strings
+    private final String fragmentName; // Also null for a compute shader, its file name is in vertexName
+
+    // Uniform location cache, filled once by uniform() and indexed by the handle it returns
+    private int[] uniformLocations = new int[0];
+    private String[] uniformNames = new String[0];
+
+    public Shader() { // Default unchanged code, the bundled cube shaders
+        this(resource(CUBE_VERTEX), resource(FRAGMENT)); // Ooo cool constructor chaining
+    }
+
+    public Shader(String vertexShaderCode, String fragmentShaderCode) { // Overloaded Constructor, compiles the code given
+        this(link(vertexShaderCode, fragmentShaderCode, false), null, null);
     }
 
-    public Shader(String vertexShaderCode, String fragmentShaderCode) { // Overloaded Constructor
+    public Shader(int programId, String vertexName, String fragmentName) { // Overloaded Constructor, wraps a program that's already linked
+        this.programId = programId;
+        this.vertexName = vertexName;
+        this.fragmentName = fragmentName;
+    }
+
+    public static int link(String vertexShaderCode, String fragmentShaderCode, boolean retrievable) {
+        // Compiles and links a program, throws with the driver's log if either step fails
+        // retrievable asks the driver to keep the binary around for glGetProgramBinary, see ProgramCache
         int vertexShader = createShader(vertexShaderCode, GL_VERTEX_SHADER); // Create the vertex shader
-        int fragmentShader = createShader(fragmentShaderCode, GL_FRAGMENT_SHADER); // Create the fragment shader
+        int fragmentShader;
+        try {
+            fragmentShader = createShader(fragmentShaderCode, GL_FRAGMENT_SHADER); // Create the fragment shader
+        }
+        catch (IllegalStateException e) {
+            glDeleteShader(vertexShader);
+            throw e;
+        }
 
-        programId = glCreateProgram(); // GPU bull
+        int programId = glCreateProgram(); // GPU bull
         glAttachShader(programId, vertexShader); // Attach the vertex and fragment shader to the program
         glAttachShader(programId, fragmentShader);
+        if (retrievable) {
+            ARBGetProgramBinary.glProgramParameteri(programId, ARBGetProgramBinary.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
         glLinkProgram(programId); // Link the program, this is where the GPU does its magic
 
         glDeleteShader(vertexShader); // Delete the vertex and fragment shader, no longer needed
-        glDeleteShader(fragmentShader); 
+        glDeleteShader(fragmentShader);
+
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) { // Fail at startup instead of drawing nothing
+            String log = glGetProgramInfoLog(programId);
+            glDeleteProgram(programId);
+            throw new IllegalStateException("Failed to link shader program:\n" + log);
+        }
+        return programId;
+    }
+
+    public static int linkCompute(String computeShaderCode, boolean retrievable) { // Same as link() for a compute only program
+        int computeShader = createShader(computeShaderCode, GL43.GL_COMPUTE_SHADER);
+        int programId = glCreateProgram();
+        glAttachShader(programId, computeShader);
+        if (retrievable) {
+            ARBGetProgramBinary.glProgramParameteri(programId, ARBGetProgramBinary.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+        glLinkProgram(programId);
+        glDeleteShader(computeShader);
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
+            String log = glGetProgramInfoLog(programId);
+            glDeleteProgram(programId);
+            throw new IllegalStateException("Failed to link compute program:\n" + log);
+        }
+        return programId;
+    }
+
+    public static String resource(String name) { // Source of one of the bundled shaders
+        try (InputStream in = Shader.class.getResourceAsStream("/shaders/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("No bundled shader called " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Can't read bundled shader " + name, e);
+        }
     }
 
-    public void setUniformMatrix4fv(String name, float[] matrix) {
-        // Not very performant structure, we should create a uniform location cache to avoid calling glGetUniformLocation every frame
-        // But for now, this is fine since we only have 3 uniforms and the shader is not very complex
-        glUniformMatrix4fv(glGetUniformLocation(programId, name), false, matrix);
+    public String vertexName() {
+        return vertexName;
+    }
+
+    public String fragmentName() {
+        return fragmentName;
+    }
+
+    public void replaceProgram(int newProgramId) {
+        // Hot reload, render thread only, swaps in a program linked somewhere else and looks every uniform up again
+        // Handles stay the same, a uniform the new version doesn't have anymore just stops doing anything
+        glDeleteProgram(programId); // GL keeps it alive until it's no longer in use
+        programId = newProgramId;
+        for (int handle = 0; handle < uniformLocations.length; handle++) {
+            uniformLocations[handle] = glGetUniformLocation(programId, uniformNames[handle]);
+            if (uniformLocations[handle] == -1) {
+                System.out.println("Uniform '" + uniformNames[handle] + "' is missing from the reloaded " + vertexName);
+            }
+        }
+    }
+
+    public int uniform(String name) {
+        // Looks up a uniform once and returns a handle for the typed setters below, call this at startup, not every frame
+        // A uniform the compiler optimised out (or a typo) also comes back as -1, which would silently do nothing
+        int location = glGetUniformLocation(programId, name);
+        if (location == -1) {
+            throw new IllegalStateException("Uniform '" + name + "' not found in shader program " + programId);
+        }
+        int handle = uniformLocations.length; // Handles are just indices into the cache
+        uniformLocations = Arrays.copyOf(uniformLocations, handle + 1);
+        uniformNames = Arrays.copyOf(uniformNames, handle + 1);
+        uniformLocations[handle] = location;
+        uniformNames[handle] = name;
+        return handle;
+    }
+
+    public String uniformName(int handle) { // For error messages and debugging
+        return uniformNames[handle];
+    }
+
+    public void setUniformMatrix4fv(int handle, FloatBuffer matrix) { // Typed setter, no string lookup per call
+        glUniformMatrix4fv(uniformLocations[handle], false, matrix);
+    }
+
+    public void setUniform1f(int handle, float value) {
+        glUniform1f(uniformLocations[handle], value);
+    }
+
+    public void setUniform1i(int handle, int value) {
+        glUniform1i(uniformLocations[handle], value);
+    }
+
+    public void setUniform4fv(int handle, FloatBuffer values) { // A vec4 array, 4 floats per element
+        glUniform4fv(uniformLocations[handle], values);
     }
 
     public void cleanup() {
@@ -36,34 +166,16 @@ public class Shader {
         glUseProgram(programId); // Uploads the program to the GPU
     }
 
-    private int createShader(String shaderCode, int shaderType) {
+    private static int createShader(String shaderCode, int shaderType) {
         int shaderId = glCreateShader(shaderType); // Create the shader object
         glShaderSource(shaderId, shaderCode);
         glCompileShader(shaderId); // Compile the shader
+        if (glGetShaderi(shaderId, GL_COMPILE_STATUS) == GL_FALSE) { // The driver's error log is the only way to know what went wrong
+            String log = glGetShaderInfoLog(shaderId);
+            glDeleteShader(shaderId);
+            String type = shaderType == GL_VERTEX_SHADER ? "vertex" : shaderType == GL_FRAGMENT_SHADER ? "fragment" : "compute";
+            throw new IllegalStateException("Failed to compile " + type + " shader:\n" + log);
+        }
         return shaderId; // Return the shader ID, this is the memory address of the shader object
     }
-
-    // Even though the shader code doesn't need to be static, I put it here to keep it out of the app class
-    // Also since its here its like a hardcoded fallback
-    public static final String vertexShaderCode = """
-        #version 330 core
-        layout (location = 0) in vec3 aPos;
-
-        uniform mat4 model;
-        uniform mat4 view;
-        uniform mat4 projection;
-
-        void main() {
-            gl_Position = projection * view * model * vec4(aPos, 1.0);
-        }
-        """;
-
-    public static final String fragmentShaderCode = """
-        #version 330 core
-        out vec4 FragColor;
-
-        void main() {
-            FragColor = vec4(1.0f, 0.5f, 0.2f, 1.0f);
-        }
-        """;
 }
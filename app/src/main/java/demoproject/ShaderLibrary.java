@@ -0,0 +1,227 @@
+package demoproject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.opengl.GL;
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+public class ShaderLibrary { // Where Shader programs come from: source files, an on-disk binary cache, and hot reload
+    // Sources are read from sourceDir if it has the file, otherwise from the ones bundled in the jar
+    // With a sourceDir, a watcher thread recompiles a shader whenever one of its files changes, on a hidden context that
+    // shares objects with the window's, and the render thread swaps the new program in with applyReloads()
+    private final Path sourceDir; // Null means bundled sources only, and no hot reload
+    private final Path cacheDir; // Null if caching is off
+    private ProgramCache cache; // Made by the first load(), it needs a GL context, stays null if caching is off or unsupported
+    private boolean cacheChecked = false;
+    private final Map<String, CompletableFuture<String>> prefetched = new ConcurrentHashMap<>(); // Sources read ahead of time
+    private final List<Shader> shaders = new CopyOnWriteArrayList<>(); // Everything load() made, read by the watcher thread
+    private final Queue<Reload> reloads = new ConcurrentLinkedQueue<>(); // Programs the watcher finished, in to the render thread
+    private int loaded = 0;
+    private int fromCache = 0;
+
+    private long sharedContext = NULL; // Hidden window whose context the watcher compiles on
+    private WatchService watchService;
+    private Thread watcher;
+    private volatile boolean running = false;
+
+    private record Reload(Shader shader, int programId) {}
+
+    public ShaderLibrary(Path sourceDir, Path cacheDir) { // No GL needed until load(), cacheDir can be null to turn caching off
+        this.sourceDir = sourceDir;
+        this.cacheDir = cacheDir;
+    }
+
+    public void prefetch(String... names) { // Starts reading sources in the background, e.g. while the window is being created
+        for (String name : names) {
+            prefetched.computeIfAbsent(name, n -> CompletableFuture.supplyAsync(() -> readSource(n)));
+        }
+    }
+
+    public Shader loadCompute(String computeName) { // Same as load() for a compute shader, only call it if the context has GL 4.3
+        return load(computeName, null);
+    }
+
+    public Shader load(String vertexName, String fragmentName) { // Render thread, from the cache if it's there, else compiled and cached
+        if (!cacheChecked) {
+            ProgramCache programCache = cacheDir == null ? null : new ProgramCache(cacheDir);
+            cache = programCache != null && programCache.isSupported() ? programCache : null;
+            cacheChecked = true;
+        }
+        String vertexCode = source(vertexName);
+        String fragmentCode = fragmentName == null ? "" : source(fragmentName); // No fragment shader for a compute program
+        int programId = 0;
+        String key = null;
+        if (cache != null) {
+            key = cache.key(vertexCode, fragmentCode);
+            programId = cache.load(key);
+        }
+        if (programId != 0) {
+            fromCache++;
+        }
+        else {
+            programId = link(vertexCode, fragmentName == null ? null : fragmentCode);
+            if (cache != null) {
+                cache.store(key, programId);
+            }
+        }
+        loaded++;
+        Shader shader = new Shader(programId, vertexName, fragmentName);
+        shaders.add(shader);
+        return shader;
+    }
+
+    public String source(String name) { // The prefetched copy if there is one
+        CompletableFuture<String> future = prefetched.get(name);
+        if (future == null) {
+            return readSource(name);
+        }
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) { // Same exceptions as reading it here would have thrown
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    private int link(String vertexOrComputeCode, String fragmentCode) { // A null fragmentCode means a compute program
+        return fragmentCode == null ? Shader.linkCompute(vertexOrComputeCode, cache != null)
+            : Shader.link(vertexOrComputeCode, fragmentCode, cache != null);
+    }
+
+    private String readSource(String name) { // Straight from disk or the jar, hot reload always uses this
+        Path file = sourceDir == null ? null : sourceDir.resolve(name);
+        if (file == null || !Files.isRegularFile(file)) {
+            return Shader.resource(name);
+        }
+        try {
+            return Files.readString(file);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Can't read shader " + file, e);
+        }
+    }
+
+    public String summary() { // For the startup log
+        return loaded + " shader programs, " + (cache == null ? "no cache" : fromCache + " from cache");
+    }
+
+    public void startHotReload(Window window) { // Main thread, GLFW only lets that one create windows, does nothing without a sourceDir
+        if (sourceDir == null) {
+            return;
+        }
+        try {
+            watchService = sourceDir.getFileSystem().newWatchService();
+            sourceDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException e) {
+            System.out.println("Shader hot reload is off, can't watch " + sourceDir + ": " + e.getMessage());
+            return;
+        }
+        sharedContext = window.createSharedContext();
+        running = true;
+        watcher = new Thread(this::watch, "shader-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching " + sourceDir.toAbsolutePath() + " for shader changes");
+    }
+
+    public void applyReloads() { // Render thread, once a frame, the swap is just a program ID so the frame doesn't wait on anything
+        Reload reload;
+        while ((reload = reloads.poll()) != null) {
+            reload.shader().replaceProgram(reload.programId());
+        }
+    }
+
+    public void cleanup() { // Main thread, before the shaders themselves are cleaned up
+        running = false;
+        if (watcher != null) {
+            try {
+                watchService.close(); // Wakes the watcher up if it's waiting
+                watcher.join();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            glfwDestroyWindow(sharedContext);
+        }
+        Reload reload;
+        while ((reload = reloads.poll()) != null) { // Finished after the last frame, never used
+            glDeleteProgram(reload.programId());
+        }
+    }
+
+    private void watch() {
+        glfwMakeContextCurrent(sharedContext);
+        GL.createCapabilities(); // Per thread in LWJGL
+        try {
+            while (running) {
+                WatchKey key = watchService.poll(100, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                Set<String> changed = new HashSet<>();
+                do { // Editors often save in a few steps, keep collecting until the directory goes quiet
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path path) {
+                            changed.add(path.getFileName().toString());
+                        }
+                    }
+                    key.reset();
+                } while ((key = watchService.poll(50, TimeUnit.MILLISECONDS)) != null);
+                for (Shader shader : shaders) {
+                    if (changed.contains(shader.vertexName()) || changed.contains(shader.fragmentName())) {
+                        reload(shader);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // Shutting down
+        }
+        finally {
+            GL.setCapabilities(null);
+            glfwMakeContextCurrent(NULL);
+        }
+    }
+
+    private void reload(Shader shader) { // Watcher thread, a broken edit keeps the old program running and prints why
+        try {
+            String vertexCode = readSource(shader.vertexName());
+            String fragmentCode = shader.fragmentName() == null ? "" : readSource(shader.fragmentName());
+            int programId = link(vertexCode, shader.fragmentName() == null ? null : fragmentCode);
+            glFinish(); // The program has to be completely built before another context uses it
+            if (cache != null) {
+                cache.store(cache.key(vertexCode, fragmentCode), programId);
+            }
+            reloads.add(new Reload(shader, programId));
+            System.out.println("Reloaded " + shader.vertexName() + (shader.fragmentName() == null ? "" : " and " + shader.fragmentName()));
+        }
+        catch (IllegalStateException | UncheckedIOException e) {
+            System.out.println("Shader reload failed, keeping the old program: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import org.joml.Matrix4f;
+import org.joml.Matrix4fc;
+import org.lwjgl.BufferUtils;
+import demoproject.FrameMetrics.Stage;
+
+public class Simulation { // Owns the cubes and updates them at a fixed rate on its own thread, the renderer only sees snapshots
+    private final SpatialGrid grid = new SpatialGrid(); // Uniform grid over the cubes, for frustum culling
+    private final StaticBatcher batcher; // Bakes the cubes that don't rotate into chunk meshes, null if batching is off
+    private final CubeStore cubes; // Struct of arrays, positions and rotation speeds in one flat buffer
+    private final Random random;
+    private final FrameMetrics metrics;
+    private CubeBvh bvh; // For picking and other spatial queries, made by the first query, only updated on ticks that have some
+    private final List<SceneCommand.Query<?>> queries = new ArrayList<>(); // This tick's, answered after the other commands
+
+    private final Queue<SceneCommand> commands = new ConcurrentLinkedQueue<>(); // Input in, from any thread
+    private final TripleBuffer<SceneSnapshot> snapshots = new TripleBuffer<>(SceneSnapshot::new); // Snapshots out, to the render thread
+    private final TripleBuffer<Matrix4f> cameras = new TripleBuffer<>(Matrix4f::new); // Camera view-projection in, from the render thread
+    private final Matrix4f viewProj = new Matrix4f(); // Last camera we got, culling uses it until a newer one shows up
+    private boolean hasCamera = false; // No snapshots until the renderer has sent a camera, there's nothing to cull against
+
+    // The parts of the cubes' static data that changed, for the GPU animated renderer to patch its copy of the scene with
+    // A single slot, an update the render thread hasn't taken yet gets folded into the next one, see publishCubeData()
+    private final AtomicReference<CubeDataUpdate> pendingCubeData = new AtomicReference<>();
+    private int publishedCount = -1; // Cube count in the last update, -1 so the first tick always sends one
+
+    private static final int MERGE_GAP = 64; // Cubes, 2 KB, unchanged data that small between two spans is re-sent rather than split the upload
+
+    private final long stepNanos; // Length of one tick
+    private final long startNanos = System.nanoTime(); // Zero point of the clock both threads share
+    private long tick = 0;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    public record CubeDataUpdate(int count, DirtyRanges ranges, FloatBuffer data) {
+        // The renderer's copy should hold count cubes in CubeStore layout, indices in ranges changed since the last update
+        // data has the changed cubes back to back, in the same order as the ranges
+    }
+
+    public Simulation(Random random, FrameMetrics metrics, int ticksPerSecond) {
+        this(random, metrics, ticksPerSecond, false);
+    }
+
+    public Simulation(Random random, FrameMetrics metrics, int ticksPerSecond, boolean staticBatching) {
+        // With static batching on, cubes that don't rotate only ever reach the renderer as baked chunks, never in snapshots
+        this.batcher = staticBatching ? new StaticBatcher() : null;
+        this.cubes = new CubeStore(1024, grid, batcher);
+        this.random = random;
+        this.metrics = metrics;
+        this.stepNanos = 1_000_000_000L / ticksPerSecond;
+    }
+
+    public CubeStore cubes() { // Only safe to touch before start() or from the simulation thread
+        return cubes;
+    }
+
+    public StaticBatcher batcher() { // Null if batching is off, only poll() is safe from the render thread
+        return batcher;
+    }
+
+    public Queue<SceneCommand> commands() {
+        return commands;
+    }
+
+    public double clock() { // Seconds since the simulation was created, animation time for both threads
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    public <T> CompletableFuture<T> query(Function<CubeBvh, T> query) {
+        // Any thread, query runs on the simulation thread next tick, against the scene after that tick's other commands
+        // The result completes there too, so keep whatever is chained onto it short
+        // The BVH doesn't need refitting as the cubes turn, so a query tick only pays for the queries, unless enough cubes were added
+        // or removed since the last build that it's rebuilt first, about 2 s for a million cubes on one core, that tick runs long
+        CompletableFuture<T> result = new CompletableFuture<>();
+        commands.add(new SceneCommand.Query<>(query, result));
+        return result;
+    }
+
+    public void publishCamera(Matrix4fc viewProj) { // Render thread, the next tick culls against this
+        cameras.back().set(viewProj);
+        cameras.publish();
+    }
+
+    public SceneSnapshot latest() { // Render thread, the newest finished tick, or the previous one again if nothing new came in
+        snapshots.acquire();
+        return snapshots.front();
+    }
+
+    public CubeDataUpdate takeCubeData() { // Render thread, the changes since the last update it took, or null if there weren't any
+        return pendingCubeData.getAndSet(null);
+    }
+
+    public void start() { // Runs step() every tick on a new thread until cleanup()
+        running = true;
+        thread = new Thread(this::run, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void step() { // One tick, called by the simulation thread, or directly by headless runs so every run is the same
+        long tickStart = System.nanoTime();
+
+        SceneCommand command;
+        while ((command = commands.poll()) != null) {
+            apply(command);
+        }
+        if (!cubes.dirty().isEmpty() || animatedCount() != publishedCount) {
+            publishCubeData();
+        }
+        if (batcher != null) {
+            batcher.submit(); // Rebuilds the chunks that changed in the background
+        }
+        long commandsDone = System.nanoTime();
+        metrics.record(Stage.SCENE, commandsDone - tickStart);
+
+        long spatialDone = commandsDone;
+        if (!queries.isEmpty()) {
+            if (bvh == null) {
+                bvh = new CubeBvh(cubes);
+            }
+            bvh.update((float) clock()); // Kept between queries, so this is nearly free unless the scene changed a lot since the last one
+            for (SceneCommand.Query<?> query : queries) {
+                answer(query);
+            }
+            queries.clear();
+            spatialDone = System.nanoTime();
+            metrics.record(Stage.SPATIAL, spatialDone - commandsDone);
+        }
+
+        if (cameras.acquire()) {
+            viewProj.set(cameras.front());
+            hasCamera = true;
+        }
+        if (!hasCamera) {
+            return;
+        }
+        int visible = grid.cull(viewProj, cubes); // Only cubes that can end up on screen get sent to the renderer
+        long cullDone = System.nanoTime();
+        metrics.record(Stage.CULL, cullDone - spatialDone);
+
+        SceneSnapshot snapshot = snapshots.back(); // Copy the visible cubes out, the renderer does the matrix maths
+        snapshot.ensureCapacity(visible);
+        FloatBuffer source = cubes.buffer();
+        int[] indices = grid.visible();
+        int copied = 0;
+        for (int k = 0; k < visible; k++) {
+            if (batcher != null && !cubes.rotates(indices[k])) {
+                continue; // Already baked into a chunk
+            }
+            int from = indices[k] * CubeStore.STRIDE, to = copied++ * CubeStore.STRIDE;
+            for (int f = 0; f < CubeStore.STRIDE; f++) {
+                snapshot.visible.put(to + f, source.get(from + f));
+            }
+        }
+        snapshot.visibleCount = copied;
+        snapshot.culledCount = grid.culledCount();
+        snapshot.batchedCount = batcher == null ? 0 : batcher.size();
+        snapshot.totalCount = cubes.size();
+        snapshot.tick = tick++;
+        snapshots.publish();
+        metrics.record(Stage.SIMULATION, System.nanoTime() - tickStart);
+    }
+
+    public void cleanup() {
+        running = false;
+        if (thread != null) { // Joined first, a tick still running could otherwise submit to the batcher after it shut down
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (batcher != null) {
+            batcher.cleanup();
+        }
+    }
+
+    private int animatedCount() { // Cubes the GPU animated renderer draws, the rotating ones come first so it's always a prefix
+        return batcher == null ? cubes.size() : cubes.rotatingCount();
+    }
+
+    private void publishCubeData() {
+        // Copies out only the spans of the store that were written to since the last update, merged into as few spans as possible
+        int count = animatedCount();
+        DirtyRanges ranges = new DirtyRanges();
+        CubeDataUpdate unsent = pendingCubeData.getAndSet(null);
+        if (unsent != null) { // The renderer hasn't taken the last one, send its spans again with today's data
+            ranges.add(unsent.ranges());
+        }
+        ranges.add(cubes.dirty());
+        cubes.dirty().clear();
+        ranges.clip(count); // Anything past the end isn't drawn, it gets written again if it comes back into range
+        ranges.coalesce(MERGE_GAP);
+        FloatBuffer data = BufferUtils.createFloatBuffer(Math.max(ranges.total(), 1) * CubeStore.STRIDE);
+        FloatBuffer source = cubes.buffer();
+        for (int r = 0; r < ranges.size(); r++) {
+            data.put(source.slice(ranges.start(r) * CubeStore.STRIDE, (ranges.end(r) - ranges.start(r)) * CubeStore.STRIDE));
+        }
+        pendingCubeData.set(new CubeDataUpdate(count, ranges, data.flip()));
+        publishedCount = count;
+    }
+
+    private <T> void answer(SceneCommand.Query<T> query) {
+        try { // A broken query fails its own future instead of the tick
+            query.result().complete(query.query().apply(bvh));
+        }
+        catch (RuntimeException e) {
+            query.result().completeExceptionally(e);
+        }
+    }
+
+    private void apply(SceneCommand command) {
+        if (command instanceof SceneCommand.Query<?> query) {
+            queries.add(query); // Answered once every command is in and the BVH is up to date
+        }
+        else if (command instanceof SceneCommand.AddRandomCubes add) {
+            for (int i = 0; i < add.count(); i++) {
+                cubes.add(10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f), 10 * random.nextFloat(-0.5f, 0.5f),
+                    random.nextBoolean());
+            }
+        }
+        else if (command instanceof SceneCommand.RemoveLastCubes remove) {
+            for (int i = 0; i < remove.count(); i++) {
+                cubes.removeLast(); // Delete the latest cube, does nothing if there are none left
+            }
+        }
+        else if (command instanceof SceneCommand.AddCubes add) {
+            long[] handles = cubes.addAll(add.batch());
+            if (add.handles() != null) {
+                add.handles().complete(handles);
+            }
+        }
+        else if (command instanceof SceneCommand.RemoveCubes remove) {
+            cubes.removeAll(remove.handles());
+        }
+        else if (command instanceof SceneCommand.SaveScene save) {
+            try { // Done here since this thread owns the cubes, a bad path shouldn't take the simulation down with it
+                SceneFile.save(save.path(), cubes);
+                System.out.println("Saved " + cubes.size() + " cubes to " + save.path());
+            }
+            catch (RuntimeException e) {
+                System.out.println("Couldn't save the scene: " + e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            step();
+            next += stepNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            else if (wait < -stepNanos * 5) { // Way behind (debugger, machine asleep), skip ahead instead of running a burst of ticks
+                next = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package demoproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4fc;
+
+public class SpatialGrid { // Uniform grid over cube positions, used to frustum cull whole cells at a time
+    public static final float CUBE_RADIUS = (float) Math.sqrt(3.0) / 2.0f; // Half diagonal of a unit cube, bounds it at any rotation
+
+    // Cells are grouped into blocks of 8x8x8 and culling tests the blocks first, so a cull costs about one test per occupied
+    // block plus the cells of the blocks on the frustum's edge, instead of one per occupied cell (about 200k at a million cubes)
+    private static final int BLOCK_SHIFT = 3;
+
+    private final float cellSize;
+    private final HashMap<Long, Cell> cells = new HashMap<>(); // Only cells with cubes in them exist, only used by insert()
+    private final HashMap<Long, Block> blocks = new HashMap<>(); // Same, blocks with at least one occupied cell
+    private final ArrayList<Block> occupied = new ArrayList<>(); // Same blocks as above, as a list for fast iteration
+
+    // Where each cube lives, indexed by its index in the CubeStore, so removing a cube is O(1)
+    private Cell[] cellOf = new Cell[1024];
+    private int[] slotOf = new int[1024];
+
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private int[] visible = new int[1024]; // Output of cull(), indices of the cubes that passed
+    private int visibleCount = 0;
+    private int culledCount = 0;
+
+    private static class Cell {
+        final long key;
+        final float minX, minY, minZ; // Corner of the cell, the bounds are padded by CUBE_RADIUS when culling
+        int[] members = new int[8]; // Cube indices in this cell
+        int size = 0;
+        Block block;
+        int blockIndex; // Position in the block's cell list
+
+        Cell(long key, float minX, float minY, float minZ) {
+            this.key = key;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+        }
+    }
+
+    private static class Block {
+        final long key;
+        final float minX, minY, minZ; // Corner of the block, padded by CUBE_RADIUS when culling like the cells
+        Cell[] cells = new Cell[8]; // Occupied cells in this block
+        int size = 0;
+        int listIndex; // Position in the occupied list
+
+        Block(long key, float minX, float minY, float minZ) {
+            this.key = key;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+        }
+    }
+
+    public SpatialGrid() { // Default constructor
+        this(8.0f);
+    }
+
+    public SpatialGrid(float cellSize) { // Overloaded constructor, bigger cells mean fewer cell tests but more cube tests
+        this.cellSize = cellSize;
+    }
+
+    public void insert(int index, float x, float y, float z) { // Called by the CubeStore when a cube is added
+        int cx = (int) Math.floor(x / cellSize), cy = (int) Math.floor(y / cellSize), cz = (int) Math.floor(z / cellSize);
+        long key = key(cx, cy, cz);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell(key, cx * cellSize, cy * cellSize, cz * cellSize);
+            cells.put(key, cell);
+            addToBlock(cell, cx >> BLOCK_SHIFT, cy >> BLOCK_SHIFT, cz >> BLOCK_SHIFT); // Arithmetic shift, so this floors negatives too
+        }
+        if (cell.size == cell.members.length) {
+            cell.members = Arrays.copyOf(cell.members, cell.size * 2);
+        }
+        ensureCapacity(index + 1);
+        cellOf[index] = cell;
+        slotOf[index] = cell.size;
+        cell.members[cell.size++] = index;
+    }
+
+    public void remove(int index) { // Called by the CubeStore when a cube is removed, swap removes it from its cell
+        Cell cell = cellOf[index];
+        int slot = slotOf[index];
+        int moved = cell.members[--cell.size];
+        cell.members[slot] = moved;
+        slotOf[moved] = slot;
+        cellOf[index] = null;
+        if (cell.size == 0) { // Drop empty cells so culling never looks at them
+            cells.remove(cell.key);
+            removeFromBlock(cell);
+        }
+    }
+
+    public void move(int from, int to) { // Called by the CubeStore when a cube changes index, the slot at 'to' must be free
+        ensureCapacity(to + 1); // 'to' can be past every index inserted so far, e.g. a static cube making room for a rotating one
+        Cell cell = cellOf[from];
+        cellOf[to] = cell;
+        slotOf[to] = slotOf[from];
+        cell.members[slotOf[from]] = to;
+        cellOf[from] = null;
+    }
+
+    public void clear() {
+        cells.clear();
+        blocks.clear();
+        occupied.clear();
+        Arrays.fill(cellOf, null);
+    }
+
+    public int cull(Matrix4fc viewProj, CubeStore cubes) {
+        // Tests every occupied block against the frustum, then the cells of blocks that straddle its edge, then only the cubes in
+        // cells that straddle it. Returns the number of visible cubes, their indices are in visible()
+        frustum.set(viewProj);
+        if (visible.length < cubes.size()) {
+            visible = new int[Math.max(cubes.size(), visible.length * 2)];
+        }
+        float blockSize = cellSize * (1 << BLOCK_SHIFT);
+        int count = 0;
+        for (int b = 0; b < occupied.size(); b++) {
+            Block block = occupied.get(b);
+            int result = frustum.intersectAab(block.minX - CUBE_RADIUS, block.minY - CUBE_RADIUS, block.minZ - CUBE_RADIUS,
+                block.minX + blockSize + CUBE_RADIUS, block.minY + blockSize + CUBE_RADIUS, block.minZ + blockSize + CUBE_RADIUS);
+            if (result == FrustumIntersection.INSIDE) { // Whole block visible, no need to look at the cells
+                for (int c = 0; c < block.size; c++) {
+                    Cell cell = block.cells[c];
+                    System.arraycopy(cell.members, 0, visible, count, cell.size);
+                    count += cell.size;
+                }
+            }
+            else if (result == FrustumIntersection.INTERSECT) {
+                for (int c = 0; c < block.size; c++) {
+                    count = cullCell(block.cells[c], cubes, count);
+                }
+            }
+            // Anything else is the index of the plane the block is outside of, so the whole block is culled
+        }
+        visibleCount = count;
+        culledCount = cubes.size() - count;
+        return count;
+    }
+
+    private int cullCell(Cell cell, CubeStore cubes, int count) { // Appends the cell's visible cubes after count, returns the new count
+        int result = frustum.intersectAab(cell.minX - CUBE_RADIUS, cell.minY - CUBE_RADIUS, cell.minZ - CUBE_RADIUS,
+            cell.minX + cellSize + CUBE_RADIUS, cell.minY + cellSize + CUBE_RADIUS, cell.minZ + cellSize + CUBE_RADIUS);
+        if (result == FrustumIntersection.INSIDE) { // Whole cell visible, no need to look at the cubes
+            System.arraycopy(cell.members, 0, visible, count, cell.size);
+            count += cell.size;
+        }
+        else if (result == FrustumIntersection.INTERSECT) { // On the edge, test every cube
+            for (int m = 0; m < cell.size; m++) {
+                int i = cell.members[m];
+                float r = cubes.rotates(i) ? CUBE_RADIUS : 0.5f; // Cubes that don't rotate get a tight box
+                float x = cubes.x(i), y = cubes.y(i), z = cubes.z(i);
+                if (frustum.testAab(x - r, y - r, z - r, x + r, y + r, z + r)) {
+                    visible[count++] = i;
+                }
+            }
+        }
+        // Anything else is the index of the plane the cell is outside of, so the whole cell is culled
+        return count;
+    }
+
+    public int[] visible() { // Indices of the cubes that passed the last cull, only the first visibleCount() are valid
+        return visible;
+    }
+
+    public int visibleCount() {
+        return visibleCount;
+    }
+
+    public int culledCount() {
+        return culledCount;
+    }
+
+    public int cellCount() {
+        return cells.size();
+    }
+
+    private void addToBlock(Cell cell, int bx, int by, int bz) {
+        long key = key(bx, by, bz);
+        Block block = blocks.get(key);
+        if (block == null) {
+            float blockSize = cellSize * (1 << BLOCK_SHIFT);
+            block = new Block(key, bx * blockSize, by * blockSize, bz * blockSize);
+            block.listIndex = occupied.size();
+            blocks.put(key, block);
+            occupied.add(block);
+        }
+        if (block.size == block.cells.length) {
+            block.cells = Arrays.copyOf(block.cells, block.size * 2);
+        }
+        cell.block = block;
+        cell.blockIndex = block.size;
+        block.cells[block.size++] = cell;
+    }
+
+    private void removeFromBlock(Cell cell) { // Swap removes the cell from its block, and the block from the list once it's empty
+        Block block = cell.block;
+        Cell moved = block.cells[--block.size];
+        block.cells[cell.blockIndex] = moved;
+        moved.blockIndex = cell.blockIndex;
+        block.cells[block.size] = null;
+        if (block.size == 0) {
+            blocks.remove(block.key);
+            Block last = occupied.remove(occupied.size() - 1);
+            if (last != block) {
+                occupied.set(block.listIndex, last);
+                last.listIndex = block.listIndex;
+            }
+        }
+    }
+
+    private static long key(int x, int y, int z) { // 21 bits per axis
+        return ((long) (x & 0x1FFFFF) << 42) | ((long) (y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed > cellOf.length) {
+            int capacity = Math.max(needed, cellOf.length * 2);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+        }
+    }
+}
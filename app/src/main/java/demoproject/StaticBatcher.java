@@ -0,0 +1,199 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.lwjgl.BufferUtils;
+
+public class StaticBatcher { // Bakes cubes that never rotate into one pre-transformed mesh per chunk of space
+    // The CubeStore tells this class about every static cube added or removed, only the chunks that changed get rebuilt
+    // Rebuilds run on a background thread, finished meshes are picked up by the render thread with poll() and swapped in whole
+    // Bigger chunks mean fewer draw calls but more work per rebuild, every chunk is a draw call, so at the default scene density
+    // (a cube per 100 cubic units, half of them static) 32 units puts about 160 cubes in each, 16 only held about 20
+    public static final float CHUNK_SIZE = 32.0f;
+    private static final int FLOATS_PER_CUBE = Cube.vertices.length; // 24 vertices, already in world space after baking
+
+    private final HashMap<Long, Chunk> chunks = new HashMap<>(); // Simulation thread only
+    private final ArrayList<Chunk> dirty = new ArrayList<>(); // Chunks changed since the last submit()
+    private int count = 0; // Static cubes across every chunk
+
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> { // One thread, so meshes finish in order
+        Thread thread = new Thread(runnable, "chunk-builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Finished meshes, out to the render thread, only the newest one per chunk is kept so a render side that falls behind the
+    // churn holds at most one mesh per chunk instead of every version of it, a key is queued when its chunk has a mesh waiting
+    private final ConcurrentHashMap<Long, ChunkMesh> built = new ConcurrentHashMap<>();
+    private final Queue<Long> builtKeys = new ConcurrentLinkedQueue<>();
+
+    private static class Chunk {
+        final long key;
+        final float minX, minY, minZ;
+        float[] positions = new float[3 * 16]; // x, y, z of every static cube in the chunk, in no particular order
+        int size = 0;
+        int version = 0; // Bumped on every submit, so the renderer can skip a mesh that's older than one it already has
+        boolean dirty = false;
+
+        Chunk(long key, float minX, float minY, float minZ) {
+            this.key = key;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+        }
+    }
+
+    public static final class ChunkMesh { // A rebuilt chunk, immutable once it's in the queue
+        public final long key;
+        public final int version;
+        public final int cubeCount; // 0 means the chunk is empty now and should be deleted
+        public final FloatBuffer vertices; // Positions only, same vertex format as Cube.vertices
+        public final IntBuffer indices;
+        public final float minX, minY, minZ, maxX, maxY, maxZ; // Bounds of the chunk, padded to fit the cubes on its edges
+
+        ChunkMesh(long key, int version, int cubeCount, FloatBuffer vertices, IntBuffer indices, float minX, float minY, float minZ) {
+            this.key = key;
+            this.version = version;
+            this.cubeCount = cubeCount;
+            this.vertices = vertices;
+            this.indices = indices;
+            this.minX = minX - 0.5f; // Static cubes are axis aligned, half a unit either side of their centre
+            this.minY = minY - 0.5f;
+            this.minZ = minZ - 0.5f;
+            this.maxX = minX + CHUNK_SIZE + 0.5f;
+            this.maxY = minY + CHUNK_SIZE + 0.5f;
+            this.maxZ = minZ + CHUNK_SIZE + 0.5f;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int chunkCount() {
+        return chunks.size();
+    }
+
+    public void add(float x, float y, float z) { // Called by the CubeStore when a cube that doesn't rotate is added
+        Chunk chunk = chunkAt(x, y, z, true);
+        if (chunk.size * 3 == chunk.positions.length) {
+            chunk.positions = Arrays.copyOf(chunk.positions, chunk.positions.length * 2);
+        }
+        int base = chunk.size++ * 3;
+        chunk.positions[base] = x;
+        chunk.positions[base + 1] = y;
+        chunk.positions[base + 2] = z;
+        count++;
+        markDirty(chunk);
+    }
+
+    public void remove(float x, float y, float z) { // Called by the CubeStore when a cube that doesn't rotate is removed
+        Chunk chunk = chunkAt(x, y, z, false);
+        if (chunk == null) {
+            return;
+        }
+        float[] positions = chunk.positions;
+        for (int i = 0; i < chunk.size; i++) { // Linear in the chunk's size, which is small next to rebuilding its mesh anyway
+            int base = i * 3;
+            if (positions[base] == x && positions[base + 1] == y && positions[base + 2] == z) {
+                int last = --chunk.size * 3; // Swap remove, the order of cubes in a mesh doesn't matter
+                positions[base] = positions[last];
+                positions[base + 1] = positions[last + 1];
+                positions[base + 2] = positions[last + 2];
+                count--;
+                markDirty(chunk);
+                return;
+            }
+        }
+    }
+
+    public void clear() {
+        for (Chunk chunk : chunks.values()) {
+            chunk.size = 0;
+            markDirty(chunk);
+        }
+        count = 0;
+    }
+
+    public void submit() {
+        // Simulation thread, once per tick, sends every chunk that changed off to be rebuilt
+        // Only the positions are copied here, expanding them into vertices and indices happens on the builder thread
+        if (dirty.isEmpty()) {
+            return; // The usual tick, nothing to send and nothing allocated
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            Chunk chunk = dirty.get(i);
+            chunk.dirty = false;
+            float[] positions = Arrays.copyOf(chunk.positions, chunk.size * 3);
+            int version = ++chunk.version;
+            long key = chunk.key;
+            float minX = chunk.minX, minY = chunk.minY, minZ = chunk.minZ;
+            builder.execute(() -> publish(build(key, version, positions, minX, minY, minZ)));
+            if (chunk.size == 0) { // The renderer deletes it when the empty mesh comes through, a new cube here starts over
+                chunks.remove(chunk.key);
+            }
+        }
+        dirty.clear();
+    }
+
+    public ChunkMesh poll() { // Render thread, the next finished mesh or null
+        Long key = builtKeys.poll();
+        return key == null ? null : built.remove(key);
+    }
+
+    public void cleanup() {
+        builder.shutdownNow();
+    }
+
+    private void publish(ChunkMesh mesh) { // Builder thread, one thread so a mesh in the map is always older than this one
+        // Replacing a mesh that's waiting drops it, its key is already queued, a remove racing with this either takes the old mesh
+        // and the put below queues the key again, or comes after it and takes this one
+        if (built.put(mesh.key, mesh) == null) {
+            builtKeys.add(mesh.key);
+        }
+    }
+
+    private static ChunkMesh build(long key, int version, float[] positions, float minX, float minY, float minZ) {
+        // Copies the cube mesh once per cube with the position added on, the result is drawn with an identity model matrix
+        int cubes = positions.length / 3;
+        FloatBuffer vertices = BufferUtils.createFloatBuffer(Math.max(cubes, 1) * FLOATS_PER_CUBE);
+        IntBuffer indices = BufferUtils.createIntBuffer(Math.max(cubes, 1) * Cube.indices.length);
+        int vertexCount = FLOATS_PER_CUBE / 3;
+        for (int c = 0; c < cubes; c++) {
+            float x = positions[c * 3], y = positions[c * 3 + 1], z = positions[c * 3 + 2];
+            for (int v = 0; v < FLOATS_PER_CUBE; v += 3) {
+                vertices.put(Cube.vertices[v] + x).put(Cube.vertices[v + 1] + y).put(Cube.vertices[v + 2] + z);
+            }
+            for (int index : Cube.indices) {
+                indices.put(index + c * vertexCount);
+            }
+        }
+        return new ChunkMesh(key, version, cubes, vertices.flip(), indices.flip(), minX, minY, minZ);
+    }
+
+    private Chunk chunkAt(float x, float y, float z, boolean create) {
+        int cx = (int) Math.floor(x / CHUNK_SIZE), cy = (int) Math.floor(y / CHUNK_SIZE), cz = (int) Math.floor(z / CHUNK_SIZE);
+        long key = ((long) (cx & 0x1FFFFF) << 42) | ((long) (cy & 0x1FFFFF) << 21) | (cz & 0x1FFFFF); // Same packing as SpatialGrid
+        Chunk chunk = chunks.get(key);
+        if (chunk == null && create) {
+            chunk = new Chunk(key, cx * CHUNK_SIZE, cy * CHUNK_SIZE, cz * CHUNK_SIZE);
+            chunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    private void markDirty(Chunk chunk) {
+        if (!chunk.dirty) {
+            chunk.dirty = true;
+            dirty.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package demoproject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import org.lwjgl.opengl.ARBBufferStorage;
+import org.lwjgl.opengl.GL;
+import demoproject.FrameMetrics.Stage;
+import static org.lwjgl.opengl.GL33.*;
+
+public class StreamBuffer { // GL buffer for data that's rewritten every frame, callers write straight into mapped GL memory
+    // With buffer storage the buffer is mapped once (persistent and coherent) and split into a ring of regions, one per frame
+    // in flight, each guarded by a fence so we only wait if the GPU is still reading the region we're about to overwrite
+    // Without it (plain GL 3.3) the buffer is orphaned and mapped again every frame, the driver hands out fresh memory instead
+    private static final int REGIONS = 3; // Frames in flight, the CPU can be two frames ahead of the GPU before it has to wait
+    private static final int ALIGNMENT = 256; // Region size is rounded up to this so every region starts nicely aligned
+
+    private final int target;
+    private final FrameMetrics metrics;
+    private final boolean persistent; // Buffer storage path, false means the orphaning fallback
+
+    private int buffer;
+    private int regionBytes; // Size of one region, the whole buffer is REGIONS times this in the persistent path
+    private ByteBuffer mapped; // Persistent: the whole ring, mapped for the buffer's lifetime. Fallback: the current frame's mapping
+    private final FloatBuffer[] regionViews = new FloatBuffer[REGIONS]; // Float views of each region, made once per mapping
+    private FloatBuffer fallbackView; // Float view of the fallback mapping, remade only if the driver hands back a different pointer
+    private final long[] fences = new long[REGIONS]; // Sync object per region, 0 once we've waited on it
+    private int region = 0; // Region being written this frame
+    private long offset = 0; // Byte offset of that region in the buffer
+
+    private long stallNanos = 0; // Total time spent waiting on a fence, also recorded as Stage.STALL, persistent path only
+    private long stallCount = 0;
+
+    public StreamBuffer(int target, int initialRegionBytes, FrameMetrics metrics) { // Needs a current GL context
+        this.target = target;
+        this.metrics = metrics;
+        this.persistent = GL.getCapabilities().GL_ARB_buffer_storage; // Core in 4.4, Mesa and most drivers expose it on 3.3 too
+        allocate(initialRegionBytes);
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public int buffer() { // Changes when the buffer grows, bind it after begin() rather than caching it
+        return buffer;
+    }
+
+    public long offset() { // Byte offset of this frame's data, for glVertexAttribPointer
+        return offset;
+    }
+
+    public long stallNanos() {
+        return stallNanos;
+    }
+
+    public long stallCount() {
+        return stallCount;
+    }
+
+    public FloatBuffer begin(int floats) {
+        // Maps room for this many floats and returns a view straight over the GL memory, index 0 is the start of this frame's data
+        // Write with absolute puts, then call end() before drawing and fence() right after the draw that reads it
+        int bytes = floats * Float.BYTES;
+        if (bytes > regionBytes) {
+            grow(bytes);
+        }
+        if (persistent) {
+            waitFor(region); // Only blocks if the GPU is still on the frame that used this region REGIONS frames ago
+            offset = (long) region * regionBytes;
+            return regionViews[region].clear();
+        }
+        // Any wait happens inside the driver here, there's no fence to tell it apart from the map itself, so it isn't counted as a
+        // stall, the caller's upload stage times it
+        glBindBuffer(target, buffer);
+        glBufferData(target, regionBytes, GL_STREAM_DRAW); // Orphan, whatever the GPU is still reading keeps its old memory
+        ByteBuffer mapping = glMapBufferRange(target, 0, regionBytes, GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT, mapped);
+        if (mapping == null) {
+            throw new IllegalStateException("Couldn't map the stream buffer");
+        }
+        if (mapping != mapped || fallbackView == null) {
+            mapped = mapping;
+            fallbackView = mapping.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        offset = 0;
+        return fallbackView.clear();
+    }
+
+    public void end() { // Done writing, the persistent mapping is coherent so there's nothing to flush
+        if (!persistent) {
+            glBindBuffer(target, buffer);
+            glUnmapBuffer(target); // False means the memory was lost (e.g. a mode switch), that frame just draws garbage
+        }
+    }
+
+    public void fence() { // Right after the last draw that reads this frame's data
+        if (persistent) {
+            fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            region = (region + 1) % REGIONS;
+        }
+    }
+
+    public void cleanup() {
+        release();
+    }
+
+    private void allocate(int bytes) {
+        regionBytes = Math.max(ALIGNMENT, (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        buffer = glGenBuffers();
+        glBindBuffer(target, buffer);
+        if (persistent) { // Immutable storage, so growing means a new buffer
+            int flags = GL_MAP_WRITE_BIT | ARBBufferStorage.GL_MAP_PERSISTENT_BIT | ARBBufferStorage.GL_MAP_COHERENT_BIT;
+            long size = (long) regionBytes * REGIONS;
+            ARBBufferStorage.glBufferStorage(target, size, flags);
+            mapped = glMapBufferRange(target, 0, size, flags);
+            if (mapped == null) {
+                throw new IllegalStateException("Couldn't map the stream buffer");
+            }
+            for (int r = 0; r < REGIONS; r++) {
+                regionViews[r] = mapped.slice(r * regionBytes, regionBytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+        }
+        else {
+            glBufferData(target, regionBytes, GL_STREAM_DRAW);
+            mapped = null;
+            fallbackView = null;
+        }
+    }
+
+    private void grow(int bytes) { // Doubles so adding cubes doesn't reallocate every frame
+        release();
+        allocate(Math.max(bytes, regionBytes * 2));
+        region = 0;
+    }
+
+    private void release() { // Waits for every region, the GPU may still be reading any of them
+        for (int r = 0; r < REGIONS; r++) {
+            waitFor(r);
+        }
+        if (persistent) {
+            glBindBuffer(target, buffer);
+            glUnmapBuffer(target);
+        }
+        glDeleteBuffers(buffer);
+    }
+
+    private void waitFor(int r) {
+        long fence = fences[r];
+        if (fence == 0) {
+            return;
+        }
+        int status = glClientWaitSync(fence, 0, 0); // Just a poll, the common case is the GPU finished long ago
+        if (status == GL_TIMEOUT_EXPIRED) {
+            long start = System.nanoTime();
+            do { // Flush on the first real wait so the fence can't sit in an unsubmitted command buffer forever
+                status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1_000_000L);
+            } while (status == GL_TIMEOUT_EXPIRED);
+            recordStall(System.nanoTime() - start);
+        }
+        glDeleteSync(fence);
+        fences[r] = 0;
+        if (status == GL_WAIT_FAILED) {
+            throw new IllegalStateException("glClientWaitSync failed on the stream buffer fence");
+        }
+    }
+
+    private void recordStall(long nanos) {
+        stallNanos += nanos;
+        stallCount++;
+        metrics.record(Stage.STALL, nanos);
+    }
+}
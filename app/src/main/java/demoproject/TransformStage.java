@@ -0,0 +1,164 @@
+package demoproject;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joml.Matrix4f;
+
+public class TransformStage { // Computes every cube's model matrix into one buffer, split across a fixed pool of worker threads
+    public static final int FLOATS_PER_MATRIX = 16;
+    private static final int MIN_CHUNK = 1024; // Below this many cubes per chunk the hand off costs more than the maths
+    private static final int CHUNKS_PER_WORKER = 4; // A few chunks each so a slow thread doesn't hold up the frame
+    private static final int CLOSED = Integer.MAX_VALUE; // Cursor chunk while a job is being set up, past the end of any job
+
+    private final int workers; // Threads doing the work, including the calling thread
+    private final Thread[] threads; // The extra workers, empty when running serially, started by the first parallel job
+    private boolean started = false;
+    private final Matrix4f callerScratch = new Matrix4f(); // The calling thread's scratch matrix, the workers have their own
+
+    // The current job, written by the caller while the cursor is closed, and only read by workers once it has been opened
+    private volatile FloatBuffer cubes; // CubeStore layout
+    private volatile int[] indices;
+    private volatile FloatBuffer dest;
+    private volatile float time;
+    private volatile int count;
+    private volatile int chunkSize;
+    private volatile int chunkCount;
+
+    // Work stealing cursor, the job's generation in the high 32 bits and the next free chunk in the low 32 bits
+    // A new job first closes the cursor under its own generation, so late workers of the old one can't claim anything, then writes
+    // its fields, then opens it at chunk 0. Workers read the fields after seeing it open, and claiming a chunk is a compare and
+    // swap on both halves, so a claim only goes through while the fields a worker read still belong to its job
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicInteger completed = new AtomicInteger(); // Chunks done, the last one to finish wakes the caller up
+    private int generation = 0; // Only touched by the caller
+    private volatile Thread caller;
+    private volatile boolean running = true;
+
+    public TransformStage() { // Default constructor, one worker per core
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TransformStage(int workers) { // Overloaded constructor, 1 worker is the serial fallback
+        this.workers = Math.max(1, workers);
+        threads = new Thread[this.workers - 1];
+    }
+
+    public int workers() {
+        return workers;
+    }
+
+    public void compute(CubeStore cubes, float time, FloatBuffer dest) {
+        // Writes cube i's model matrix at dest[i * 16], column major, dest must hold at least cubes.size() * 16 floats
+        compute(cubes.buffer(), null, cubes.size(), time, dest);
+    }
+
+    public void compute(CubeStore cubes, int[] indices, int count, float time, FloatBuffer dest) {
+        compute(cubes.buffer(), indices, count, time, dest);
+    }
+
+    public void compute(FloatBuffer cubes, int[] indices, int count, float time, FloatBuffer dest) {
+        // The real version, cubes is anything in the CubeStore layout (CubeStore.STRIDE floats per cube), e.g. a SceneSnapshot
+        // Same as above but only for the cubes listed in indices (e.g. the ones that survived culling), packed densely
+        // The matrix of cube indices[k] goes to dest[k * 16], a null indices array means every cube in order
+        if (workers == 1 || count < MIN_CHUNK * 2) { // Serial fallback, also used for small scenes
+            computeRange(cubes, indices, time, dest, 0, count, callerScratch);
+            return;
+        }
+
+        if (!started) {
+            startWorkers();
+        }
+        int chunkSize = Math.max(MIN_CHUNK, (count + workers * CHUNKS_PER_WORKER - 1) / (workers * CHUNKS_PER_WORKER));
+        generation++;
+        cursor.set(((long) generation << 32) | CLOSED); // Close the last job before touching its fields
+        this.cubes = cubes; // Publish the job
+        this.indices = indices;
+        this.dest = dest;
+        this.time = time;
+        this.count = count;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (count + chunkSize - 1) / chunkSize;
+        this.caller = Thread.currentThread();
+        completed.set(0);
+        cursor.set((long) generation << 32); // Opens the new job up for claiming, chunk 0, everything above is visible to whoever sees it
+
+        for (Thread thread : threads) { // Wake everyone up
+            LockSupport.unpark(thread);
+        }
+        drainChunks(generation, callerScratch); // The caller helps out instead of sitting idle
+        while (completed.get() < chunkCount) { // Wait for the stragglers, the last worker unparks us
+            LockSupport.park(this);
+        }
+    }
+
+    public static void computeRange(FloatBuffer cubes, int[] indices, float time, FloatBuffer dest, int from, int to, Matrix4f scratch) {
+        for (int k = from; k < to; k++) { // Absolute puts only, so threads writing different ranges never touch shared buffer state
+            CubeStore.modelMatrix(cubes, indices == null ? k : indices[k], time, scratch).get(k * FLOATS_PER_MATRIX, dest);
+        }
+    }
+
+    public void cleanup() {
+        running = false;
+        for (Thread thread : threads) {
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private void startWorkers() { // Not in the constructor so the threads never see a half built object
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(this::runWorker, "transform-worker-" + (i + 1));
+            threads[i].setDaemon(true); // Don't keep the JVM alive if cleanup is never called
+            threads[i].start();
+        }
+        started = true;
+    }
+
+    private void runWorker() {
+        Matrix4f scratch = new Matrix4f(); // One per thread, JOML matrices aren't thread safe
+        int seen = 0;
+        while (running) {
+            long current = cursor.get();
+            if ((int) (current >>> 32) == seen || (int) current == CLOSED) { // Nothing new yet, sleep until compute opens a job
+                LockSupport.park(this);
+                continue;
+            }
+            seen = (int) (current >>> 32);
+            drainChunks(seen, scratch);
+        }
+    }
+
+    private void drainChunks(int job, Matrix4f scratch) {
+        long current = cursor.get();
+        if ((int) (current >>> 32) != job || (int) current == CLOSED) {
+            return; // Replaced, or not open yet
+        }
+        // The cursor was open for this job, so these are its fields, unless a newer job has closed it since and is rewriting them,
+        // in which case the compare and swap against current below fails and they're never used
+        FloatBuffer cubes = this.cubes;
+        int[] indices = this.indices;
+        FloatBuffer dest = this.dest;
+        float time = this.time;
+        int count = this.count, chunkSize = this.chunkSize, chunkCount = this.chunkCount;
+        while (true) {
+            int chunk = (int) current;
+            if ((int) (current >>> 32) != job || chunk >= chunkCount) {
+                return; // Job finished or replaced
+            }
+            if (!cursor.compareAndSet(current, current + 1)) {
+                current = cursor.get();
+                continue; // Someone else got this chunk, try the next one
+            }
+            int from = chunk * chunkSize;
+            computeRange(cubes, indices, time, dest, from, Math.min(from + chunkSize, count), scratch);
+            if (completed.incrementAndGet() == chunkCount) {
+                LockSupport.unpark(caller);
+            }
+            current = cursor.get();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package demoproject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class TripleBuffer<T> { // Lock free single writer, single reader handoff, neither side ever waits for the other
+    // Three slots: the writer's back buffer, the reader's front buffer and the most recently published one in the middle
+    // Publishing and acquiring just swap an index with the middle slot, nothing is copied and nothing is allocated
+    private static final int FRESH = 4; // Set on the middle index when it holds something the reader hasn't seen yet
+
+    private final Object[] slots = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0; // Writer thread only
+    private int front = 2; // Reader thread only
+
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = factory.get();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public T back() { // Writer side, fill this in and then call publish()
+        return (T) slots[back];
+    }
+
+    public void publish() { // Writer side, hands the back buffer over and takes the old middle one to write into next
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    public boolean acquire() { // Reader side, swaps in the newest published buffer, false if nothing new was published
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        front = middle.getAndSet(front) & 3;
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T front() { // Reader side, stays the same until the next successful acquire()
+        return (T) slots[front];
+    }
+}
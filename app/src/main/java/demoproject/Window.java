@@ -1,9 +1,11 @@
 package demoproject;
 
+import org.lwjgl.system.Configuration;
+
 import static org.lwjgl.glfw.Callbacks.*;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL.*;
-import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 public class Window {
@@ -11,6 +13,8 @@ public class Window {
     private final String title;
 
     private long window; // Window handle, funny port from C API
+    private final boolean headless; // Invisible window, no vsync, everything is drawn into an offscreen framebuffer
+    private int fbo, colorRbo, depthRbo; // Offscreen framebuffer and its attachments, only used when headless
     
     public static final float FOV = (float)Math.toRadians(70); // Set values for the projection matrix
     public static final float Z_NEAR = 0.01f; // Don't need to be static, but hardcoded (final)
@@ -20,18 +24,34 @@ public class Window {
         this.title = "Default Title";
         this.width = 1600;
         this.height = 900;
+        this.headless = false;
     }
 
     public Window(int width, int height, String title) { // Overloaded constructor
+        this(width, height, title, false);
+    }
+
+    public Window(int width, int height, String title, boolean headless) { // Overloaded constructor, for benchmark runs
         this.title = title;
         this.width = width;
         this.height = height;
+        this.headless = headless;
+    }
+
+    public boolean isHeadless() {
+        return headless;
     }
 
     public long handle() { // For usage of keyboard and mouse input in the camera class
         return window;
     }
 
+    public void setTitleSuffix(String suffix) { // For stats readouts, shown after the title the window was created with
+        if (!headless) { // Nobody would see it
+            glfwSetWindowTitle(window, title + " | " + suffix);
+        }
+    }
+
     public float getAspect() { // For the projection matrix
         return (float)width / height;
     }
@@ -41,22 +61,55 @@ public class Window {
     }
 
     public void cleanup() {
+        if (headless) {
+            glDeleteFramebuffers(fbo);
+            glDeleteRenderbuffers(colorRbo);
+            glDeleteRenderbuffers(depthRbo);
+        }
         glfwFreeCallbacks(window); // Free the callbacks set in the init function for resizing and input
         glfwDestroyWindow(window);
         glfwTerminate(); // Terminate GLFW, removes all the resources allocated by GLFW
     }
 
     public void update() {
-        glfwSwapBuffers(window); // Double buffering for smoothness
+        if (headless) {
+            glFinish(); // Nothing to present, wait for the GPU instead so frame times include the actual rendering
+        }
+        else {
+            glfwSwapBuffers(window); // Double buffering for smoothness
+        }
         glfwPollEvents(); // Poll for window events (keyboard and mouse input)
     }
     
     private boolean wireframe = false; // Wireframe mode, toggled with the tab key
+    private RenderMode renderMode = RenderMode.INSTANCED; // Render path, cycled with the I key to compare frame times
+
+    public RenderMode getRenderMode() { // For picking the render path in the main loop
+        return renderMode;
+    }
+
+    public void setRenderMode(RenderMode renderMode) {
+        this.renderMode = renderMode;
+    }
+
     public void init() {
+        // Headless on a machine with no display server (CI boxes), use GLFW's null platform with an OSMesa (llvmpipe) context
+        boolean noDisplay = headless && System.getProperty("os.name").startsWith("Linux")
+            && System.getenv("DISPLAY") == null && System.getenv("WAYLAND_DISPLAY") == null;
+        if (noDisplay) {
+            glfwInitHint(GLFW_PLATFORM, GLFW_PLATFORM_NULL);
+            // LWJGL would load libGL and look functions up with glXGetProcAddress, which don't belong to an OSMesa context
+            // (and often aren't installed on those boxes), so GL is created by hand below once the context is current
+            Configuration.OPENGL_EXPLICIT_INIT.set(true);
+        }
+
         if (!glfwInit()) // Initialize GLFW, returns false if it fails
             throw new IllegalStateException("Unable to initialize GLFW");
 
-        glfwWindowHint(GLFW_VISIBLE, GLFW_TRUE); // OpenGL works in a globals context
+        if (noDisplay) {
+            glfwWindowHint(GLFW_CONTEXT_CREATION_API, GLFW_OSMESA_CONTEXT_API);
+        }
+        glfwWindowHint(GLFW_VISIBLE, headless ? GLFW_FALSE : GLFW_TRUE); // OpenGL works in a globals context
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE); // Set window to be resizable
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3); // Set the OpenGL version to 3.3
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
@@ -75,6 +128,10 @@ public class Window {
             if (key == GLFW_KEY_TAB && action == GLFW_PRESS) { // Toggle wireframe mode when tab is pressed
                 wireframe = !wireframe;
             }
+            if (key == GLFW_KEY_I && action == GLFW_PRESS) { // Next render mode when I is pressed
+                renderMode = renderMode.next();
+                System.out.println("Render mode: " + renderMode.name().toLowerCase());
+            }
             if (wireframe) {
                 glPolygonMode(GL_FRONT_AND_BACK, GL_LINE); // Set the polygon mode to wireframe
             }
@@ -90,12 +147,52 @@ public class Window {
         });
 
         glfwMakeContextCurrent(window); // Set the current context, single-threaded
-        glfwSwapInterval(1); // Vsync
-        glfwShowWindow(window); // Show the window after everything is set up
+        glfwSwapInterval(headless ? 0 : 1); // Vsync, off when headless so the frame rate isn't capped at the refresh rate
+        if (!headless) {
+            glfwShowWindow(window); // Show the window after everything is set up
+        }
 
+        if (noDisplay) {
+            create(name -> glfwGetProcAddress(name)); // Functions come from OSMesa through GLFW, it loaded the library
+        }
         createCapabilities(); // Load OpenGL functions
 
+        if (headless) {
+            createOffscreenTarget();
+        }
+
         glEnable(GL_DEPTH_TEST); // Depth testing for btf rendering
         glEnable(GL_STENCIL_TEST); // Unused at the moment
     }
-}
\ No newline at end of file
+
+    public long createSharedContext() {
+        // Hidden window whose context shares buffers and programs with this one, for GL work on another thread, main thread only
+        // The hints from init() are still set, so it gets the same GL version and context API
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        long shared = glfwCreateWindow(1, 1, title, NULL, window);
+        if (shared == NULL) {
+            throw new RuntimeException("Failed to create a shared GL context");
+        }
+        return shared;
+    }
+
+    private void createOffscreenTarget() {
+        // An invisible window's default framebuffer isn't guaranteed to be rendered at all, so draw into our own
+        colorRbo = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, colorRbo);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+
+        depthRbo = glGenRenderbuffers(); // Depth and stencil in one, same as the default framebuffer
+        glBindRenderbuffer(GL_RENDERBUFFER, depthRbo);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH24_STENCIL8, width, height);
+
+        fbo = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorRbo);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthRbo);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Failed to create the offscreen framebuffer");
+        }
+        glViewport(0, 0, width, height); // Stays bound for the rest of the run
+    }
+}
@@ -0,0 +1,26 @@
+#version 330 core
+// GPU animated version, the cube's static data comes in per instance and the rotation is done here from the time uniform
+// Same maths as CubeStore.modelMatrix: rotate around the cube's axis by speed * time, then translate to its position
+layout (location = 0) in vec3 aPos;
+layout (location = 1) in vec4 aPositionSpeed; // xyz position, w rotation speed in radians per second
+layout (location = 2) in vec4 aAxis; // xyz normalized rotation axis, w unused
+
+uniform mat4 view;
+uniform mat4 projection;
+uniform float time;
+
+mat3 rotation(vec3 axis, float angle) { // Axis angle to matrix (Rodrigues), same convention as JOML
+    float s = sin(angle);
+    float c = cos(angle);
+    float t = 1.0 - c;
+    vec3 a = axis;
+    return mat3(
+        t * a.x * a.x + c,       t * a.x * a.y + s * a.z, t * a.x * a.z - s * a.y, // First column
+        t * a.x * a.y - s * a.z, t * a.y * a.y + c,       t * a.y * a.z + s * a.x,
+        t * a.x * a.z + s * a.y, t * a.y * a.z - s * a.x, t * a.z * a.z + c);
+}
+
+void main() {
+    vec3 world = rotation(aAxis.xyz, aPositionSpeed.w * time) * aPos + aPositionSpeed.xyz;
+    gl_Position = projection * view * vec4(world, 1.0);
+}
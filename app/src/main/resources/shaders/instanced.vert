@@ -0,0 +1,12 @@
+#version 330 core
+// Instanced version, the model matrix is a per-instance attribute instead of a uniform
+// A mat4 attribute uses locations 1 to 4, the vertex array object sets up one vec4 column per location
+layout (location = 0) in vec3 aPos;
+layout (location = 1) in mat4 aModel;
+
+uniform mat4 view;
+uniform mat4 projection;
+
+void main() {
+    gl_Position = projection * view * aModel * vec4(aPos, 1.0);
+}
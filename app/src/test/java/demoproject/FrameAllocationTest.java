@@ -0,0 +1,74 @@
+package demoproject;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.BufferUtils;
+
+public class FrameAllocationTest { // A headless tick must not allocate once the scene has settled, checked with the JVM's per thread counter
+    private static final int WARMUP = 3_000; // Enough ticks for the JIT to compile everything and the first chunk build to go out
+    private static final int TICKS = 1_000;
+    private static final int CUBES = 8_000; // Half rotate, enough visible ones for the TransformStage to split them between threads
+    private static final float EXTENT = 40.0f;
+
+    // Anything allocating once per tick costs at least 16 bytes a tick, this is far below that but leaves room for the odd
+    // allocation the JVM itself makes on the thread (the counter is read twice, class loading, etc.)
+    private static final long MAX_BYTES = TICKS;
+
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // The same thing a headless run drives, with batching on so StaticBatcher.submit() runs every tick too
+    private final Simulation simulation = new Simulation(new Random(1), new FrameMetrics(false, null, 1.0), 60, true);
+    private final TransformStage transforms = new TransformStage(2); // Two even on one core, so the hand off to a worker is covered
+    private final Matrix4f viewProj = new Matrix4f()
+            .perspective((float) Math.toRadians(45.0f), 16.0f / 9.0f, Window.Z_NEAR, Window.Z_FAR)
+            .lookAt(0.0f, 0.0f, EXTENT * 3.0f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    private final FloatBuffer matrices = BufferUtils.createFloatBuffer(CUBES * TransformStage.FLOATS_PER_MATRIX);
+
+    public FrameAllocationTest() {
+        Random random = new Random(1);
+        for (int i = 0; i < CUBES; i++) {
+            simulation.cubes().add(random.nextFloat(-EXTENT, EXTENT), random.nextFloat(-EXTENT, EXTENT), random.nextFloat(-EXTENT, EXTENT), i % 2 == 0);
+        }
+    }
+
+    @AfterEach
+    public void cleanup() {
+        simulation.cleanup();
+        transforms.cleanup();
+    }
+
+    @Test
+    public void tickDoesNotAllocate() {
+        for (int tick = 0; tick < WARMUP; tick++) {
+            tick(tick);
+        }
+        // Only this thread is counted, the batcher's builder and the TransformStage worker have their own counters
+        long before = threads.getCurrentThreadAllocatedBytes();
+        int visible = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            visible = tick(WARMUP + tick);
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(visible > 2048, "only " + visible + " cubes visible, not enough to use the worker");
+        assertTrue(allocated < MAX_BYTES, allocated + " bytes allocated over " + TICKS + " ticks");
+    }
+
+    private int tick(int tick) { // What a headless frame does on the CPU, minus the GL calls
+        simulation.publishCamera(viewProj);
+        simulation.step(); // Commands, batcher submit, culling and the snapshot copy
+        SceneSnapshot snapshot = simulation.latest();
+        simulation.takeCubeData(); // Null once the scene stops changing
+        while (simulation.batcher().poll() != null) {
+            // What ChunkRenderer.update() takes off the batcher, the meshes themselves come from the builder thread
+        }
+        transforms.compute(snapshot.visible, null, snapshot.visibleCount, tick / 60.0f, matrices);
+        return snapshot.visibleCount;
+    }
+}
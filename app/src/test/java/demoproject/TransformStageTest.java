@@ -0,0 +1,54 @@
+package demoproject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.BufferUtils;
+
+public class TransformStageTest { // Parallel results have to match computeRange run serially, whatever the jobs before them were
+    private static final int JOBS = 2000;
+    private static final int[] SIZES = {2048, 12_000, 3000, 6000}; // Alternating chunk counts, all big enough to go parallel
+
+    @Test
+    public void backToBackJobsMatchSerial() {
+        Random random = new Random(7);
+        int maxCount = 12_000;
+        FloatBuffer cubes = BufferUtils.createFloatBuffer(maxCount * CubeStore.STRIDE);
+        for (int i = 0; i < cubes.capacity(); i++) {
+            cubes.put(i, random.nextFloat(-10.0f, 10.0f));
+        }
+        // Two destinations in turn, so a straggler writing the last job into this one's buffer shows up as a mismatch
+        FloatBuffer[] dests = {
+            BufferUtils.createFloatBuffer(maxCount * TransformStage.FLOATS_PER_MATRIX),
+            BufferUtils.createFloatBuffer(maxCount * TransformStage.FLOATS_PER_MATRIX)
+        };
+        FloatBuffer expected = BufferUtils.createFloatBuffer(maxCount * TransformStage.FLOATS_PER_MATRIX);
+        Matrix4f scratch = new Matrix4f();
+
+        TransformStage stage = new TransformStage(4); // More threads than the smallest job has chunks, so some always come in late
+        try {
+            for (int job = 0; job < JOBS; job++) {
+                int count = SIZES[job % SIZES.length];
+                float time = job * 0.25f;
+                FloatBuffer dest = dests[job % 2];
+                for (int i = 0; i < count * TransformStage.FLOATS_PER_MATRIX; i++) {
+                    dest.put(i, Float.NaN); // Anything left unwritten fails the comparison
+                }
+                stage.compute(cubes, null, count, time, dest);
+                TransformStage.computeRange(cubes, null, time, expected, 0, count, scratch);
+                for (int i = 0; i < count * TransformStage.FLOATS_PER_MATRIX; i++) {
+                    if (Float.floatToIntBits(dest.get(i)) != Float.floatToIntBits(expected.get(i))) {
+                        assertEquals(expected.get(i), dest.get(i), "job " + job + " (" + count + " cubes), float " + i);
+                    }
+                }
+            }
+        }
+        finally {
+            stage.cleanup();
+        }
+    }
+}